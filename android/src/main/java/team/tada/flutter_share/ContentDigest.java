@@ -0,0 +1,218 @@
+package team.tada.flutter_share;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Digest of received content sent to Dart next to its path, see {@link ReceiveOptions#digestAlgorithm}.
+ * <p>
+ * Copies compute it from the bytes passing through {@link CopyEngine}, so the content is not read
+ * a second time. Only files Dart gets without a copy, or copies made before the algorithm was
+ * chosen, are read once more. Results are remembered per file, size and modification time.
+ */
+abstract class ContentDigest {
+
+    static final String SHA_256 = "sha256";
+    static final String SHA_1 = "sha1";
+    static final String MD5 = "md5";
+    static final String CRC32 = "crc32";
+    static final String CRC32C = "crc32c";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MEMO_SIZE = 256;
+
+    private static final Map<String, String> memo = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MEMO_SIZE;
+        }
+    };
+
+    static boolean isValid(String algorithm) {
+        return SHA_256.equals(algorithm) || SHA_1.equals(algorithm) || MD5.equals(algorithm)
+                || CRC32.equals(algorithm) || CRC32C.equals(algorithm);
+    }
+
+    static ContentDigest create(String algorithm) {
+        try {
+            switch (algorithm) {
+                case SHA_256:
+                    return new Message(MessageDigest.getInstance("SHA-256"));
+                case SHA_1:
+                    return new Message(MessageDigest.getInstance("SHA-1"));
+                case MD5:
+                    return new Message(MessageDigest.getInstance("MD5"));
+                case CRC32:
+                    return new Crc(new CRC32());
+                case CRC32C:
+                    return new Crc(new Crc32c());
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        throw new IllegalArgumentException("Unknown digest algorithm " + algorithm);
+    }
+
+    /**
+     * Consumes the remaining bytes of {@code buffer}.
+     */
+    abstract void update(ByteBuffer buffer);
+
+    /**
+     * @return the digest, checksums as 4 big-endian bytes.
+     */
+    abstract byte[] finish();
+
+    /**
+     * Remembers the digest of a finished copy.
+     */
+    static void remember(File file, String algorithm, byte[] digest) {
+        synchronized (memo) {
+            memo.put(memoKey(file, algorithm), ShareCache.toHex(digest));
+        }
+    }
+
+    /**
+     * @return hex digest of {@code file}, read from disk unless it was remembered.
+     */
+    static String of(File file, String algorithm) throws IOException {
+        String key = memoKey(file, algorithm);
+        synchronized (memo) {
+            String digest = memo.get(key);
+            if (digest != null) {
+                return digest;
+            }
+        }
+
+        ShareStats stats = ShareStats.getInstance();
+        long start = stats.begin(ShareStats.STAGE_DIGEST);
+        ContentDigest digest = create(algorithm);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileInputStream input = new FileInputStream(file)) {
+            FileChannel channel = input.getChannel();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            stats.end(ShareStats.STAGE_DIGEST, start);
+        }
+
+        String hex = ShareCache.toHex(digest.finish());
+        synchronized (memo) {
+            memo.put(key, hex);
+        }
+        return hex;
+    }
+
+    private static String memoKey(File file, String algorithm) {
+        return algorithm + '|' + file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+    }
+
+    private static class Message extends ContentDigest {
+
+        private final MessageDigest digest;
+
+        Message(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        void update(ByteBuffer buffer) {
+            digest.update(buffer);
+        }
+
+        @Override
+        byte[] finish() {
+            return digest.digest();
+        }
+    }
+
+    private static class Crc extends ContentDigest {
+
+        private final Checksum checksum;
+        private byte[] scratch;
+
+        Crc(Checksum checksum) {
+            this.checksum = checksum;
+        }
+
+        @Override
+        void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+                return;
+            }
+            // Checksum only takes arrays before API 26
+            if (scratch == null) {
+                scratch = new byte[64 * 1024];
+            }
+            while (buffer.hasRemaining()) {
+                int length = Math.min(scratch.length, buffer.remaining());
+                buffer.get(scratch, 0, length);
+                checksum.update(scratch, 0, length);
+            }
+        }
+
+        @Override
+        byte[] finish() {
+            long value = checksum.getValue();
+            return new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+        }
+    }
+
+    /**
+     * Table driven CRC-32C (Castagnoli), the platform class only exists from API 34 on.
+     */
+    static class Crc32c implements Checksum {
+
+        private static final int[] TABLE = new int[256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int crc = i;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+                }
+                TABLE[i] = crc;
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        @Override
+        public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            int value = crc;
+            for (int i = offset; i < offset + length; i++) {
+                value = (value >>> 8) ^ TABLE[(value ^ bytes[i]) & 0xFF];
+            }
+            crc = value;
+        }
+
+        @Override
+        public long getValue() {
+            return (~crc) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package team.tada.flutter_share;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Copies shared content into local files.
+ * <p>
+ * Seekable sources are handed to the kernel with {@link FileChannel#transferTo}, pipes and
+ * sockets served by some providers go through a pooled direct buffer. A digest of the content is
+ * computed on the buffered path, where it costs no extra read. When a digest is required, seekable
+ * sources take the buffered path as well. Progress and cancellation are checked between slices of
+ * at most {@link #TRANSFER_CHUNK} bytes.
+ * <p>
+ * Files are written under a unique temporary name, synced and then renamed into place, so a
+ * destination path is never seen half written and concurrent copies never write the same file. A
+ * seekable source ending before its declared length fails the copy instead of leaving a short file.
+ */
+class CopyEngine {
+
+    private static final int BUFFER_SIZE = 512 * 1024;
+    private static final int BUFFER_POOL_SIZE = 4;
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+
+    static final String PART_SUFFIX = ".part";
+
+    private static final BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<>(BUFFER_POOL_SIZE);
+
+    private CopyEngine() {
+    }
+
+    static class Result {
+        final long bytes;
+        /**
+         * Digest of the copied bytes, null when the copy did not pass through user space.
+         */
+        final byte[] digest;
+        /**
+         * Up to {@link MimeResolver#HEADER_SIZE} first bytes, null when the copy did not pass
+         * through user space.
+         */
+        final byte[] header;
+
+        Result(long bytes, byte[] digest, byte[] header) {
+            this.bytes = bytes;
+            this.digest = digest;
+            this.header = header;
+        }
+    }
+
+    /**
+     * Preference order of the formats virtual documents are exported to, first match wins.
+     */
+    private static final String[] EXPORT_TYPE_PREFERENCE = {
+            "application/pdf",
+            "application/vnd.openxmlformats-officedocument.",
+            "application/vnd.oasis.opendocument.",
+            "image/png",
+            "image/jpeg",
+            "text/",
+    };
+
+    static Result copy(ContentResolver resolver, Uri srcUri, File dstFile) throws IOException {
+        return copy(resolver, srcUri, null, dstFile, null, false, null);
+    }
+
+    /**
+     * @param exportType mime type to convert a virtual document to, see {@link #getExportType}.
+     *                   Null to copy the content as is.
+     * @param digest updated with the copied bytes if they go through the buffered path, may be null.
+     * @param digestRequired whether to use the buffered path for every source, so the digest is
+     *                       always computed.
+     * @param transfer receives progress and may cancel the copy, may be null.
+     */
+    static Result copy(ContentResolver resolver, Uri srcUri, String exportType, File dstFile,
+                       ContentDigest digest, boolean digestRequired, ShareTransfer transfer) throws IOException {
+        File partFile = new File(dstFile.getParentFile(), "." + dstFile.getName() + "." + UUID.randomUUID() + PART_SUFFIX);
+        boolean renamed = false;
+        try {
+            Result result;
+            try (AssetFileDescriptor source = exportType != null
+                    ? openTypedSource(resolver, srcUri, exportType)
+                    : openSource(resolver, srcUri);
+                 FileOutputStream output = new FileOutputStream(partFile)) {
+                result = copy(source, output.getChannel(), digest, digestRequired, transfer);
+                output.getChannel().force(true);
+            }
+            if (!partFile.renameTo(dstFile)) {
+                throw new IOException("Can not rename " + partFile + " to " + dstFile);
+            }
+            renamed = true;
+            return result;
+        } finally {
+            if (!renamed) {
+                partFile.delete();
+            }
+        }
+    }
+
+    static AssetFileDescriptor openSource(ContentResolver resolver, Uri uri) throws FileNotFoundException {
+        AssetFileDescriptor source = resolver.openAssetFileDescriptor(uri, "r");
+        if (source == null) {
+            throw new FileNotFoundException("Provider returned no descriptor for " + uri);
+        }
+        return source;
+    }
+
+    /**
+     * Opens a virtual document converted to {@code exportType}, usually served as a pipe.
+     */
+    static AssetFileDescriptor openTypedSource(ContentResolver resolver, Uri uri, String exportType)
+            throws FileNotFoundException {
+        AssetFileDescriptor source = resolver.openTypedAssetFileDescriptor(uri, exportType, null);
+        if (source == null) {
+            throw new FileNotFoundException("Provider returned no " + exportType + " descriptor for " + uri);
+        }
+        return source;
+    }
+
+    /**
+     * Picks the format a virtual document, which has no byte representation of its own, is copied
+     * as from the types its provider can convert it to.
+     *
+     * @return the preferred exportable mime type, null if the provider offers none.
+     */
+    static String getExportType(ContentResolver resolver, Uri uri) {
+        String[] types = resolver.getStreamTypes(uri, "*/*");
+        if (types == null || types.length == 0) {
+            return null;
+        }
+        for (String preferred : EXPORT_TYPE_PREFERENCE) {
+            for (String type : types) {
+                if (type.startsWith(preferred)) {
+                    return type;
+                }
+            }
+        }
+        return types[0];
+    }
+
+    /**
+     * Copies {@code source} to the current position of {@code output}. Does not close either side.
+     */
+    static Result copy(AssetFileDescriptor source, FileChannel output, ContentDigest digest,
+                       boolean digestRequired, ShareTransfer transfer) throws IOException {
+        FileInputStream input = new FileInputStream(source.getFileDescriptor());
+        FileChannel channel = input.getChannel();
+
+        long statSize = source.getParcelFileDescriptor().getStatSize();
+        ByteBuffer header = ByteBuffer.allocate(MimeResolver.HEADER_SIZE);
+        if (statSize < 0) {
+            long bytes = copyBuffered(channel, output, -1, digest, header, transfer, 0, -1);
+            return new Result(bytes, digest != null ? digest.finish() : null, getHeader(header));
+        }
+
+        long start = source.getStartOffset();
+        long length = getLength(source, statSize);
+
+        if (digest != null && digestRequired) {
+            channel.position(start);
+            long bytes = copyBuffered(channel, output, length, digest, header, transfer, 0, length);
+            checkLength(bytes, length);
+            return new Result(bytes, digest.finish(), getHeader(header));
+        }
+
+        long done = transferRange(channel, start, length, output, transfer, 0, length);
+        return new Result(done, null, null);
+    }
+
+    /**
+     * Writes the content as consecutive files of {@code segmentBytes} bytes into {@code dir},
+     * named {@code 00000}, {@code 00001}, ... Every segment is synced and renamed into place
+     * before it is announced through {@link ShareTransfer#onSegment}, so a consumer can start
+     * reading it while later segments are still being written. An empty source gives one empty
+     * segment.
+     *
+     * @param exportType mime type to convert a virtual document to, null to copy it as is.
+     * @param digest digest of the whole content, see {@link #copy(ContentResolver, Uri, String,
+     *               File, ContentDigest, boolean, ShareTransfer)}.
+     */
+    static Result copySegments(ContentResolver resolver, Uri srcUri, String exportType, File dir, long segmentBytes,
+                               ContentDigest digest, boolean digestRequired, ShareTransfer transfer)
+            throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create " + dir);
+        }
+        try (AssetFileDescriptor source = exportType != null
+                ? openTypedSource(resolver, srcUri, exportType)
+                : openSource(resolver, srcUri)) {
+            FileInputStream input = new FileInputStream(source.getFileDescriptor());
+            long statSize = source.getParcelFileDescriptor().getStatSize();
+            boolean seekable = statSize >= 0;
+            return writeSegments(input.getChannel(), seekable ? source.getStartOffset() : 0,
+                    seekable ? getLength(source, statSize) : -1, dir, segmentBytes, digest, digestRequired, transfer);
+        }
+    }
+
+    /**
+     * Segment loop of {@link #copySegments}, reading from an opened source.
+     *
+     * @param start offset of the content in a seekable {@code channel}, ignored for streams.
+     * @param total length of the content, -1 for a stream read from its current position.
+     */
+    static Result writeSegments(FileChannel channel, long start, long total, File dir, long segmentBytes,
+                                ContentDigest digest, boolean digestRequired, ShareTransfer transfer)
+            throws IOException {
+        boolean seekable = total >= 0;
+        boolean buffered = !seekable || (digest != null && digestRequired);
+        if (seekable && buffered) {
+            channel.position(start);
+        }
+
+        long offset = 0;
+        for (int index = 0; index == 0 || !seekable || offset < total; index++) {
+            long length = seekable ? Math.min(segmentBytes, total - offset) : segmentBytes;
+            File segment = new File(dir, String.format(Locale.US, "%05d", index));
+            File partFile = new File(dir, "." + segment.getName() + PART_SUFFIX);
+            long written;
+            try {
+                try (FileOutputStream output = new FileOutputStream(partFile)) {
+                    written = buffered
+                            ? copyBuffered(channel, output.getChannel(), length, digest, null, transfer, offset, total)
+                            : transferRange(channel, start + offset, length, output.getChannel(), transfer, offset, total);
+                    output.getChannel().force(true);
+                }
+                // Only a stream of unknown length may end before a segment is full
+                if (seekable) {
+                    checkLength(offset + written, offset + length);
+                }
+                // A stream ending right at a segment boundary leaves nothing for the next one
+                if (written == 0 && index > 0) {
+                    break;
+                }
+                if (!partFile.renameTo(segment)) {
+                    throw new IOException("Can not rename " + partFile + " to " + segment);
+                }
+            } finally {
+                partFile.delete();
+            }
+
+            if (transfer != null) {
+                transfer.onSegment(index, segment, offset, written);
+            }
+            offset += written;
+            if (written < length) {
+                break;
+            }
+        }
+        return new Result(offset, buffered && digest != null ? digest.finish() : null, null);
+    }
+
+    private static byte[] getHeader(ByteBuffer header) {
+        return Arrays.copyOf(header.array(), header.position());
+    }
+
+    private static long getLength(AssetFileDescriptor source, long statSize) {
+        return source.getDeclaredLength() != AssetFileDescriptor.UNKNOWN_LENGTH
+                ? source.getDeclaredLength()
+                : statSize - source.getStartOffset();
+    }
+
+    /**
+     * Fails a copy that ended before the length the source declared, so a short file is never
+     * renamed into place as a complete one.
+     */
+    static void checkLength(long done, long length) throws EOFException {
+        if (done < length) {
+            throw new EOFException("Source ended after " + done + " of " + length + " bytes");
+        }
+    }
+
+    /**
+     * Hands {@code length} bytes at {@code position} of a seekable {@code input} to the kernel.
+     * Bytes the kernel refuses to transfer are copied through a buffer.
+     *
+     * @param base bytes copied before this range, added to the reported progress.
+     * @param total size reported as progress total, -1 if unknown.
+     */
+    private static long transferRange(FileChannel input, long position, long length, FileChannel output,
+                                      ShareTransfer transfer, long base, long total) throws IOException {
+        long done = 0;
+        while (done < length) {
+            long transferred = input.transferTo(position + done, Math.min(TRANSFER_CHUNK, length - done), output);
+            if (transferred <= 0) {
+                input.position(position + done);
+                done += copyBuffered(input, output, length - done, null, null, transfer, base + done, total);
+                break;
+            }
+            done += transferred;
+            if (transfer != null) {
+                transfer.onProgress(base + done, total);
+            }
+        }
+        checkLength(done, length);
+        return done;
+    }
+
+    /**
+     * @param length bytes to copy, -1 to copy until the end of {@code input}.
+     * @param header filled with the first bytes read, may be null.
+     * @param base bytes copied before this range, added to the reported progress.
+     * @param total size reported as progress total, -1 if unknown.
+     */
+    private static long copyBuffered(FileChannel input, FileChannel output, long length, ContentDigest digest,
+                                     ByteBuffer header, ShareTransfer transfer, long base, long total)
+            throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            long done = 0;
+            while (length < 0 || done < length) {
+                if (length >= 0) {
+                    buffer.limit((int) Math.min(buffer.capacity(), length - done));
+                }
+                if (input.read(buffer) < 0) {
+                    break;
+                }
+                buffer.flip();
+                if (digest != null) {
+                    digest.update(buffer.duplicate());
+                }
+                if (header != null && header.hasRemaining()) {
+                    ByteBuffer start = buffer.duplicate();
+                    start.limit(Math.min(start.limit(), start.position() + header.remaining()));
+                    header.put(start);
+                }
+                while (buffer.hasRemaining()) {
+                    done += output.write(buffer);
+                }
+                buffer.clear();
+                if (transfer != null) {
+                    transfer.onProgress(base + done, total);
+                }
+            }
+            return done;
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        bufferPool.offer(buffer);
+    }
+}
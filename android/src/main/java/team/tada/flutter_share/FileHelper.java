@@ -24,27 +24,34 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.text.TextUtils;
 
 import android.webkit.MimeTypeMap;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import androidx.core.content.ContextCompat;
 
 class FileHelper {
 
   FileHelper() {
   }
 
-  static String getPath(final Context context, final Uri uri) {
+  static String getPath(final Context context, final Uri uri, final ShareMetadata metadata,
+      final ShareCache cache, final String digestAlgorithm, final ShareTransfer transfer) {
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-      return getPathNew(context, uri);
+      return getPathNew(context, uri, metadata, cache, digestAlgorithm, transfer);
     }
-    return getPathOld(context, uri);
+    return getPathOld(uri, metadata);
   }
 
   /**
@@ -55,12 +62,28 @@ class FileHelper {
    *
    * @param context The context.
    * @param uri The Uri to query.
+   * @param metadata What the provider reported for the Uri.
+   * @param cache The cache content uris are copied into.
+   * @param digestAlgorithm {@link ContentDigest} to compute while copying, may be null.
+   * @param transfer Progress and cancellation of the copy, may be null.
    * @author paulburke
    */
   @TargetApi(Build.VERSION_CODES.KITKAT)
-  private static String getPathNew(final Context context, final Uri uri) {
+  private static String getPathNew(final Context context, final Uri uri,
+      final ShareMetadata metadata, final ShareCache cache, final String digestAlgorithm,
+      final ShareTransfer transfer) {
     if (DocumentsContract.isDocumentUri(context, uri)) {
-      return getDocumentUri(context, uri);
+      String path = null;
+      try {
+        path = metadata.isVirtual() ? null : getDocumentUri(context, uri);
+      } catch (RuntimeException e) {
+        // Downloads ids like msf:123 or raw:/... on Q+, and providers refusing the _data query
+      }
+      if (path != null && isReadable(path)) {
+        return path;
+      }
+      // Cloud providers and virtual documents have no local file, scoped storage hides the others
+      return getFilePathFromURI(context, uri, metadata, cache, digestAlgorithm, transfer);
     } else if ("content".equalsIgnoreCase(uri.getScheme())) {
 
       // Return the remote address
@@ -68,7 +91,7 @@ class FileHelper {
         return uri.getLastPathSegment();
       }
 
-      return getFilePathFromURI(context, uri);
+      return getFilePathFromURI(context, uri, metadata, cache, digestAlgorithm, transfer);
     }
     // File
     else if ("file".equalsIgnoreCase(uri.getScheme())) {
@@ -78,28 +101,111 @@ class FileHelper {
     return null;
   }
 
-  private static String getFilePathFromURI(Context context, Uri contentUri) {
-    String fileName = getFileName(contentUri);
-
-    File rootDataDir = context.getFilesDir();
+  private static String getFilePathFromURI(Context context, Uri contentUri,
+      ShareMetadata metadata, ShareCache cache, String digestAlgorithm, ShareTransfer transfer) {
+    // Virtual document ids are opaque, their export is named after the document
+    String fileName = metadata.isVirtual() && metadata.displayName != null
+        ? metadata.displayName.replace('/', '_') : getFileName(contentUri);
 
     if (!TextUtils.isEmpty(fileName)) {
-      String fileExtension = getExtension(context, contentUri);
-
-      if (fileExtension != null) {
-        fileName = fileName + "." + fileExtension;
+      String key = ShareCache.sourceKey(metadata);
+      File cached;
+      try {
+        cached = awaitCopy(cache, key, transfer);
+      } catch (InterruptedIOException e) {
+        return null;
+      }
+      ShareStats.getInstance().onCacheLookup(cached != null);
+      if (cached != null) {
+        if (!metadata.hasSpecificMimeType(context)) {
+          metadata.setSniffedMimeType(MimeResolver.sniff(cached));
+        }
+        return cached.getAbsolutePath();
       }
 
-      File file = new File(rootDataDir + File.separator + fileName);
-      copy(context, contentUri, file);
+      try {
+        String exportType = metadata.isVirtual()
+            ? CopyEngine.getExportType(context.getContentResolver(), contentUri) : null;
+        String fileExtension = exportType != null
+            ? MimeTypeMap.getSingleton().getExtensionFromMimeType(exportType)
+            : getExtension(context, contentUri, metadata);
 
+        if (fileExtension != null) {
+          fileName = fileName + "." + fileExtension;
+        }
 
-      return file.getAbsolutePath();
+        File file = cache.newFile(key, fileName);
+        if (transfer != null && exportType == null) {
+          // The size of a virtual document says nothing about its export
+          transfer.setTotalIfUnknown(metadata.size);
+        }
+        CopyEngine.Result result = copy(context, contentUri, exportType, file,
+            exportType == null ? metadata.size : -1, digestAlgorithm, transfer);
+        if (result == null || !file.exists()) {
+          return null;
+        }
+        byte[] hash = result.digest;
+
+        if (exportType == null && !metadata.hasSpecificMimeType(context)) {
+          // The provider did not say, the first bytes do
+          String sniffed = result.header != null
+              ? MimeResolver.sniff(result.header) : MimeResolver.sniff(file);
+          metadata.setSniffedMimeType(sniffed);
+          String sniffedExtension = MimeResolver.getExtension(sniffed);
+          if (fileExtension == null && sniffedExtension != null) {
+            File named = new File(file.getParentFile(), file.getName() + "." + sniffedExtension);
+            if (file.renameTo(named)) {
+              file = named;
+            }
+          }
+        }
+
+        // Checksums are too weak to deduplicate copies by
+        boolean sha256 = ContentDigest.SHA_256.equals(digestAlgorithm);
+        File copied = cache.put(key, file, sha256 ? hash : null);
+        if (digestAlgorithm != null && hash != null) {
+          ContentDigest.remember(copied, digestAlgorithm, hash);
+        }
+        return copied.getAbsolutePath();
+      } finally {
+        if (key != null) {
+          cache.endCopy(key);
+        }
+      }
     }
 
     return null;
   }
 
+  /**
+   * Returns the cached copy for {@code key}, waiting for a copy of the same content that is
+   * running on another thread. Returns null once the caller owns the copy of {@code key}.
+   *
+   * @throws InterruptedIOException if the transfer was cancelled while waiting.
+   */
+  private static File awaitCopy(ShareCache cache, String key, ShareTransfer transfer)
+      throws InterruptedIOException {
+    while (true) {
+      File cached = cache.get(key);
+      if (cached != null || key == null) {
+        return cached;
+      }
+      CountDownLatch running = cache.beginCopy(key);
+      if (running == null) {
+        return null;
+      }
+      try {
+        while (!running.await(100, TimeUnit.MILLISECONDS)) {
+          if (transfer != null) {
+            transfer.checkCancelled();
+          }
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted waiting for " + key);
+      }
+    }
+  }
+
   private static String getFileName(Uri uri) {
     if (uri == null) {
       return null;
@@ -113,7 +219,7 @@ class FileHelper {
     return fileName;
   }
 
-  private static String getExtension(Context context, Uri uri) {
+  private static String getExtension(Context context, Uri uri, ShareMetadata metadata) {
     String extension;
 
     String file = uri.getLastPathSegment();
@@ -126,8 +232,9 @@ class FileHelper {
     }
 
     if (uri.getScheme().equals(ContentResolver.SCHEME_CONTENT)) {
-      final MimeTypeMap mime = MimeTypeMap.getSingleton();
-      extension = mime.getExtensionFromMimeType(context.getContentResolver().getType(uri));
+      // A generic type is left to sniffing after the copy
+      String type = metadata.getMimeType(context);
+      extension = MimeResolver.isSpecific(type) ? MimeResolver.getExtension(type) : null;
     } else {
       extension = MimeTypeMap
           .getFileExtensionFromUrl(Uri.fromFile(new File(uri.getPath())).toString());
@@ -136,39 +243,74 @@ class FileHelper {
     return extension;
   }
 
-  private static void copy(Context context, Uri srcUri, File dstFile) {
+  /**
+   * @param exportType type a virtual document is converted to, null to copy as is.
+   * @param size size reported by the provider, -1 if unknown.
+   * @param digestAlgorithm digest to compute in any case, null to compute none.
+   * @return outcome of the copy, null if it failed or was cancelled, which leaves no file behind.
+   */
+  private static CopyEngine.Result copy(Context context, Uri srcUri, String exportType, File dstFile,
+      long size, String digestAlgorithm, ShareTransfer transfer) {
     try {
-      InputStream inputStream = context.getContentResolver().openInputStream(srcUri);
-      if (inputStream == null) {
-        return;
+      if (transfer != null) {
+        transfer.attach();
+      }
+      StorageTarget.ensureSpace(context, dstFile.getParentFile(), size);
+      // Hashing is opt-in, without it the cache deduplicates by source key alone
+      ContentDigest digest = digestAlgorithm != null ? ContentDigest.create(digestAlgorithm) : null;
+      ShareStats stats = ShareStats.getInstance();
+      long start = stats.begin(ShareStats.STAGE_COPY);
+      try {
+        CopyEngine.Result result =
+            CopyEngine.copy(context.getContentResolver(), srcUri, exportType, dstFile, digest,
+                digestAlgorithm != null, transfer);
+        stats.onCopied(result.bytes);
+        return result;
+      } finally {
+        stats.end(ShareStats.STAGE_COPY, start);
+      }
+    } catch (IOException | RuntimeException e) {
+      if (transfer == null || !transfer.isCancelled()) {
+        e.printStackTrace();
       }
-      OutputStream outputStream = new FileOutputStream(dstFile);
-
-      copyData(inputStream, outputStream);
-      inputStream.close();
-      outputStream.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-    } catch (Exception e) {
-      e.printStackTrace();
+      deleteRecursively(dstFile.getParentFile());
+      return null;
+    } finally {
+      if (transfer != null) {
+        transfer.detach();
+      }
+    }
+  }
+
+  static byte[] readFully(File file) throws IOException {
+    try (FileInputStream input = new FileInputStream(file)) {
+      byte[] bytes = new byte[(int) file.length()];
+      int offset = 0;
+      int read;
+      while (offset < bytes.length && (read = input.read(bytes, offset, bytes.length - offset)) > 0) {
+        offset += read;
+      }
+      return offset == bytes.length ? bytes : Arrays.copyOf(bytes, offset);
     }
   }
 
-  private static void copyData(InputStream in, OutputStream out) throws Exception {
-    byte[] buffer = new byte[8 * 1024];
-    int len;
-    while ((len = in.read(buffer)) > 0) {
-      out.write(buffer, 0, len);
+  static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
     }
+    file.delete();
   }
 
-  private static String getPathOld(final Context context, final Uri uri) {
+  private static String getPathOld(final Uri uri, final ShareMetadata metadata) {
     if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
       if (isGooglePhotosUri(uri)) {
         return uri.getLastPathSegment();
       }
 
-      return getDataColumn(context, uri, null, null);
+      return metadata.data;
     } else if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
       return uri.getPath();
     }
@@ -185,11 +327,17 @@ class FileHelper {
         final String[] split = docId.split(":");
         final String type = split[0];
 
+        if (split.length < 2) {
+          return null;
+        }
         if ("primary".equalsIgnoreCase(type)) {
           return Environment.getExternalStorageDirectory() + "/" + split[1];
         }
 
-        // TODO handle non-primary volumes
+        File root = getVolumeRoot(context, type);
+        if (root != null) {
+          return new File(root, split[1]).getAbsolutePath();
+        }
       }
       // DownloadsProvider
       else if (isDownloadsDocument(uri)) {
@@ -227,6 +375,54 @@ class FileHelper {
     return null;
   }
 
+  /**
+   * @return whether this app can read the file directly, it has to be copied otherwise.
+   */
+  private static boolean isReadable(String path) {
+    File file = new File(path);
+    return file.isFile() && file.canRead();
+  }
+
+  /**
+   * Finds the mount point of a removable volume (SD card, USB OTG) by its uuid. The app-specific
+   * directories returned for every mounted volume all live below the volume root.
+   *
+   * @return the root of the volume, null if it is not mounted.
+   */
+  private static File getVolumeRoot(Context context, String uuid) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+      StorageManager storageManager =
+          (StorageManager) context.getSystemService(Context.STORAGE_SERVICE);
+      boolean mounted = false;
+      for (StorageVolume volume : storageManager.getStorageVolumes()) {
+        if (uuid.equalsIgnoreCase(volume.getUuid())) {
+          String state = volume.getState();
+          mounted = Environment.MEDIA_MOUNTED.equals(state)
+              || Environment.MEDIA_MOUNTED_READ_ONLY.equals(state);
+          break;
+        }
+      }
+      if (!mounted) {
+        return null;
+      }
+    }
+
+    for (File dir : ContextCompat.getExternalFilesDirs(context, null)) {
+      if (dir == null) {
+        continue;
+      }
+      String path = dir.getAbsolutePath();
+      int cut = path.indexOf("/Android/data/");
+      if (cut != -1) {
+        File root = new File(path.substring(0, cut));
+        if (uuid.equalsIgnoreCase(root.getName())) {
+          return root;
+        }
+      }
+    }
+    return null;
+  }
+
   private static String getDataColumn(Context context, Uri uri, String selection,
       String[] selectionArgs) {
     Cursor cursor = null;
@@ -1,11 +1,37 @@
 package team.tada.flutter_share;
 
+import android.app.Activity;
+import android.content.ClipData;
+import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 
-import io.flutter.app.FlutterActivity;
+import java.util.ArrayList;
+import java.util.UUID;
 
-public class FlutterShareActivityReceiver extends FlutterActivity {
+/**
+ * Forwards share intents to the launcher activity of the app.
+ * <p>
+ * A plain {@link Activity} so that no Flutter engine is started just to pass the intent on. Apps
+ * that set {@link FlutterShareEngine#PREWARM_META_DATA} in their manifest get the shared engine
+ * started right after the share was forwarded, while their main activity is being launched.
+ */
+public class FlutterShareActivityReceiver extends Activity {
+
+    private static final int GRANT_FLAGS = Intent.FLAG_GRANT_READ_URI_PERMISSION
+            | Intent.FLAG_GRANT_WRITE_URI_PERMISSION
+            | Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION
+            | Intent.FLAG_GRANT_PREFIX_URI_PERMISSION;
+
+    /**
+     * Manifest setting read once per process, every share would otherwise cost a binder call.
+     */
+    private static Boolean prewarmEnabled;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -30,10 +56,68 @@ public class FlutterShareActivityReceiver extends FlutterActivity {
             launchIntent.setAction(intent.getAction());
             launchIntent.setType(intent.getType());
             launchIntent.putExtras(intent);
+            // Survives process death with the intent, so a recreated activity is not taken for a new share
+            launchIntent.putExtra(ShareRequest.EXTRA_TOKEN, UUID.randomUUID().toString());
+
+            // Uri grants belong to this activity, hand them over with the intent
+            ClipData clipData = intent.getClipData() != null ? intent.getClipData() : streamClipData(intent);
+            if (clipData != null) {
+                launchIntent.setClipData(clipData);
+                launchIntent.addFlags((intent.getFlags() & GRANT_FLAGS) | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            }
 
             startActivity(launchIntent);
+
+            if (isEnginePrewarmEnabled()) {
+                // Booting the engine takes a while, forward the share first
+                final Context context = getApplicationContext();
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        FlutterShareEngine.obtain(context);
+                    }
+                });
+            }
         }
 
         finish();
     }
+
+    private ClipData streamClipData(Intent intent) {
+        ArrayList<Uri> uris = new ArrayList<>();
+        if (Intent.ACTION_SEND_MULTIPLE.equals(intent.getAction())) {
+            ArrayList<Uri> stream = intent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
+            if (stream != null) {
+                uris.addAll(stream);
+            }
+        } else {
+            Uri stream = intent.getParcelableExtra(Intent.EXTRA_STREAM);
+            if (stream != null) {
+                uris.add(stream);
+            }
+        }
+        if (uris.isEmpty()) {
+            return null;
+        }
+
+        ClipData clipData = ClipData.newRawUri(null, uris.get(0));
+        for (int i = 1; i < uris.size(); i++) {
+            clipData.addItem(new ClipData.Item(uris.get(i)));
+        }
+        return clipData;
+    }
+
+    private boolean isEnginePrewarmEnabled() {
+        if (prewarmEnabled == null) {
+            boolean enabled;
+            try {
+                ApplicationInfo info = getPackageManager().getApplicationInfo(getPackageName(), PackageManager.GET_META_DATA);
+                enabled = info.metaData != null && info.metaData.getBoolean(FlutterShareEngine.PREWARM_META_DATA, false);
+            } catch (PackageManager.NameNotFoundException e) {
+                enabled = false;
+            }
+            prewarmEnabled = enabled;
+        }
+        return prewarmEnabled;
+    }
 }
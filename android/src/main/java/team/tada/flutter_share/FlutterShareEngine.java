@@ -0,0 +1,40 @@
+package team.tada.flutter_share;
+
+import android.content.Context;
+
+import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.embedding.engine.FlutterEngineCache;
+import io.flutter.embedding.engine.dart.DartExecutor;
+
+/**
+ * A {@link FlutterEngine} kept in {@link FlutterEngineCache} so that it is booted once and reused
+ * for every share opening the app.
+ * <p>
+ * To use it, add {@code <meta-data android:name="team.tada.flutter_share.PREWARM_ENGINE"
+ * android:value="true"/>} to the application manifest and return {@link #obtain} from
+ * {@code provideFlutterEngine} of the main {@code FlutterActivity}, so the app never runs a second
+ * engine next to it.
+ */
+public final class FlutterShareEngine {
+
+    public static final String ENGINE_ID = "flutter_share_engine";
+    static final String PREWARM_META_DATA = "team.tada.flutter_share.PREWARM_ENGINE";
+
+    private FlutterShareEngine() {
+    }
+
+    /**
+     * Returns the cached engine, creating it and starting the default Dart entrypoint on first use.
+     * Must be called on the main thread.
+     */
+    public static FlutterEngine obtain(Context context) {
+        FlutterEngineCache cache = FlutterEngineCache.getInstance();
+        FlutterEngine engine = cache.get(ENGINE_ID);
+        if (engine == null) {
+            engine = new FlutterEngine(context.getApplicationContext());
+            engine.getDartExecutor().executeDartEntrypoint(DartExecutor.DartEntrypoint.createDefault());
+            cache.put(ENGINE_ID, engine);
+        }
+        return engine;
+    }
+}
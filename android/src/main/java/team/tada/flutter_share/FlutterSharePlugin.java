@@ -1,14 +1,13 @@
 package team.tada.flutter_share;
 
+import android.app.Activity;
+import android.content.ClipData;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.database.Cursor;
 import android.net.Uri;
-import android.os.Build;
-import android.provider.DocumentsContract;
-import android.provider.OpenableColumns;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -17,58 +16,212 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import androidx.annotation.RequiresApi;
 import androidx.core.content.FileProvider;
 
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.embedding.engine.plugins.activity.ActivityAware;
+import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.PluginRegistry;
 import io.flutter.plugin.common.PluginRegistry.Registrar;
 
-public class FlutterSharePlugin implements MethodChannel.MethodCallHandler, PluginRegistry.NewIntentListener {
+public class FlutterSharePlugin implements FlutterPlugin, ActivityAware, MethodChannel.MethodCallHandler,
+        PluginRegistry.NewIntentListener, EventChannel.StreamHandler, ShareTransfer.Listener {
 
     private static final String TAG = "FlutterSharePlugin";
-    private static final String TITLE = "title";
-    private static final String TEXT = "text";
+    static final String TITLE = "title";
+    static final String TEXT = "text";
     private static final String AUTHORITY = "authority";
-    private static final String PATH = "path";
-    private static final String TYPE = "type";
-    private static final String IS_MULTIPLE = "is_multiple";
+    private static final String GRANT_ALL_TARGETS = "grant_all_targets";
+    private static final String PATHS = "paths";
+    private static final String URI = "uri";
+    static final String PATH = "path";
+    static final String TYPE = "type";
+    static final String IS_MULTIPLE = "is_multiple";
+    static final String HANDLE = "handle";
+    static final String IS_HANDLE = "is_handle";
+    static final String VERSION = "version";
+    static final String ITEMS = "items";
+    static final String INDEX = "index";
+    static final String NAME = "name";
+    static final String MIME = "mime";
+    static final String SIZE = "size";
+    static final String SCALED_PATH = "scaled_path";
+    static final String THUMBNAIL_PATH = "thumbnail_path";
+    static final String SHARE_ID = "share_id";
+    static final String DIGEST = "digest";
+    static final String SEGMENTS = "segments";
+    private static final String OFFSET = "offset";
+    private static final String LENGTH = "length";
+    private static final String ID = "id";
+    private static final String RESET = "reset";
+    private static final String LIMIT = "limit";
+    private static final String STATE = "state";
+    private static final String BYTES = "bytes";
+    private static final String TOTAL = "total";
+    private static final String SEGMENT = "segment";
+    private static final String BACKGROUND_DISPATCHER = "background_dispatcher";
+    private static final String BACKGROUND_HANDLER = "background_handler";
     private static final String CHANNEL = "plugins.flutter.io/share";
+    private static final String PROGRESS_CHANNEL = "plugins.flutter.io/share/progress";
+    /**
+     * Set on an intent once it was received, so configuring again does not receive it twice. Only
+     * lives as long as the process, {@link ShareJournal#contains} covers a recreated activity.
+     */
+    private static final String EXTRA_RECEIVED = "team.tada.flutter_share.RECEIVED";
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ShareStats stats = ShareStats.getInstance();
+
+    private Context context;
+    private ExecutorService ioExecutor;
+    private Activity activity;
+    private ActivityPluginBinding activityBinding;
+    private MethodChannel methodChannel;
+    private EventChannel progressChannel;
+    private EventChannel.EventSink progressSink;
+    private ShareHandles shareHandles;
+    private ShareHandleMethods handleMethods;
+    private ShareResolver shareResolver;
+    private ShareJournal journal;
+    private ShareBackgroundIsolate backgroundIsolate;
+    private boolean configured;
+
+    /**
+     * Plugin registration for the v1 embedding.
+     */
+    public static void registerWith(Registrar registrar) {
+        FlutterSharePlugin plugin = new FlutterSharePlugin();
+        plugin.attach(registrar.context(), registrar.messenger());
+        plugin.activity = registrar.activity();
+
+        registrar.addNewIntentListener(plugin);
+    }
+
+    private void attach(Context context, BinaryMessenger messenger) {
+        this.context = context.getApplicationContext();
+        this.ioExecutor = Executors.newCachedThreadPool(new ShareResolver.WorkerThreadFactory("flutter_share-io"));
+        this.shareHandles = ShareHandles.getInstance(context);
+        this.handleMethods = new ShareHandleMethods(shareHandles, ioExecutor);
+        this.shareResolver = new ShareResolver(context, shareHandles, this);
+        this.journal = ShareJournal.getInstance(context);
 
-    private final Registrar mRegistrar;
-    private final MethodChannel methodChannel;
+        methodChannel = new MethodChannel(messenger, CHANNEL);
+        methodChannel.setMethodCallHandler(this);
 
-    private FlutterSharePlugin(Registrar registrar, MethodChannel methodChannel) {
-        this.mRegistrar = registrar;
-        this.methodChannel = methodChannel;
+        progressChannel = new EventChannel(messenger, PROGRESS_CHANNEL);
+        progressChannel.setStreamHandler(this);
     }
 
-    public static void registerWith(Registrar registrar) {
-        MethodChannel methodChannel = new MethodChannel(registrar.messenger(), CHANNEL);
+    @Override
+    public void onAttachedToEngine(FlutterPluginBinding binding) {
+        attach(binding.getApplicationContext(), binding.getBinaryMessenger());
+    }
+
+    @Override
+    public void onDetachedFromEngine(FlutterPluginBinding binding) {
+        configured = false;
+        methodChannel.setMethodCallHandler(null);
+        progressChannel.setStreamHandler(null);
+        progressSink = null;
+        if (backgroundIsolate != null) {
+            backgroundIsolate.destroy();
+            backgroundIsolate = null;
+        }
+        // Every engine attaches its own plugin, its threads must not outlive the engine
+        shareResolver.shutdown();
+        ioExecutor.shutdown();
+        shareHandles.releaseAll();
+    }
 
-        FlutterSharePlugin plugin = new FlutterSharePlugin(registrar, methodChannel);
+    @Override
+    public void onAttachedToActivity(ActivityPluginBinding binding) {
+        activityBinding = binding;
+        activity = binding.getActivity();
+        binding.addOnNewIntentListener(this);
+    }
 
-        registrar.addNewIntentListener(plugin);
+    @Override
+    public void onDetachedFromActivityForConfigChanges() {
+        onDetachedFromActivity();
+    }
+
+    @Override
+    public void onReattachedToActivityForConfigChanges(ActivityPluginBinding binding) {
+        onAttachedToActivity(binding);
+    }
 
-        methodChannel.setMethodCallHandler(plugin);
+    @Override
+    public void onDetachedFromActivity() {
+        if (activityBinding != null) {
+            activityBinding.removeOnNewIntentListener(this);
+            activityBinding = null;
+        }
+        activity = null;
     }
 
     @Override
     public void onMethodCall(MethodCall call, MethodChannel.Result result) {
         if (call.method.equals("configure")) {
-            Log.i(TAG, "called configure");
+            ReceiveOptions options = ReceiveOptions.fromCall(call);
+            shareResolver.setOptions(options);
+            stats.setVerbose(options.verboseLogging);
+
+            if (call.hasArgument(BACKGROUND_DISPATCHER) && call.argument(BACKGROUND_DISPATCHER) != null) {
+                if (backgroundIsolate == null) {
+                    backgroundIsolate = new ShareBackgroundIsolate(context);
+                }
+                backgroundIsolate.start(((Number) call.argument(BACKGROUND_DISPATCHER)).longValue(),
+                        ((Number) call.argument(BACKGROUND_HANDLER)).longValue());
+            } else if (backgroundIsolate != null) {
+                backgroundIsolate.destroy();
+                backgroundIsolate = null;
+            }
+            configured = true;
+
+            // Shares interrupted by process death, resolved ones are drained by Dart or go to the isolate below
+            final ShareBackgroundIsolate isolate = backgroundIsolate;
+            journal.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Map.Entry<String, ShareRequest> pending : journal.takeUnresolved().entrySet()) {
+                        resolve(pending.getValue(), pending.getKey());
+                    }
+                    if (isolate == null) {
+                        return;
+                    }
+                    final List<Map<String, Object>> resolved = journal.take(Integer.MAX_VALUE);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (Map<String, Object> params : resolved) {
+                                if (isolate == backgroundIsolate) {
+                                    isolate.deliver(params);
+                                } else {
+                                    journal.release((String) params.get(SHARE_ID));
+                                }
+                            }
+                        }
+                    });
+                }
+            });
 
-            if (mRegistrar.activity() != null) {
-                Intent intent = mRegistrar.activity().getIntent();
+            if (activity != null) {
+                Intent intent = activity.getIntent();
                 if (intent != null && intent.getAction() != null) {
                     String intentAction = intent.getAction();
 
-                    Log.i(TAG, "ACTION - " + intentAction);
+                    stats.log(TAG, "ACTION - " + intentAction);
 
                     if (intentAction.equals("android.intent.action.SEND") || intentAction.equals("android.intent.action.SEND_MULTIPLE")) {
-                        processShareIntent(intent);
+                        processShareIntent(intent, true);
                     }
                 }
             }
@@ -82,12 +235,12 @@ public class FlutterSharePlugin implements MethodChannel.MethodCallHandler, Plug
                 throw new IllegalArgumentException("Map argument expected");
             }
             // Android does not support showing the share sheet at a particular point on screen.
-            if (call.argument(IS_MULTIPLE)) {
+            if (isMultiple(call)) {
                 ArrayList<Uri> dataList = new ArrayList<>();
-                for (int i = 0; call.hasArgument(Integer.toString(i)); i++) {
-                    dataList.add(Uri.parse((String) call.argument(Integer.toString(i))));
+                for (String path : getPaths(call)) {
+                    dataList.add(Uri.parse(path));
                 }
-                shareMultiple(dataList, (String) call.argument(TYPE), call.hasArgument(TITLE) ? (String) call.argument(TITLE) : "");
+                shareMultiple(dataList, (String) call.argument(TYPE), call.hasArgument(TITLE) ? (String) call.argument(TITLE) : "", "");
             } else {
                 ShareType shareType = ShareType.fromMimeType((String) call.argument(TYPE));
 
@@ -99,7 +252,8 @@ public class FlutterSharePlugin implements MethodChannel.MethodCallHandler, Plug
                 if (ShareType.TYPE_PLAIN_TEXT.equals(shareType)) {
                     share((String) call.argument(TEXT), shareType, call.hasArgument(TITLE) ? (String) call.argument(TITLE) : "");
                 } else {
-                    share((String) call.argument(PATH), (call.hasArgument(TEXT) ? (String) call.argument(TEXT) : ""), shareType, (call.hasArgument(TITLE) ? (String) call.argument(TITLE) : ""), authority);
+                    List<String> paths = getPaths(call);
+                    share(paths.isEmpty() ? null : paths.get(0), (call.hasArgument(TEXT) ? (String) call.argument(TEXT) : ""), shareType, (call.hasArgument(TITLE) ? (String) call.argument(TITLE) : ""), authority, Boolean.TRUE.equals(call.argument(GRANT_ALL_TARGETS)));
                 }
             }
 
@@ -107,15 +261,220 @@ public class FlutterSharePlugin implements MethodChannel.MethodCallHandler, Plug
             return;
         }
 
+        if (call.method.equals("shareFiles")) {
+            final List<String> paths = call.argument(PATHS);
+            if (paths == null || paths.isEmpty()) {
+                throw new IllegalArgumentException("Non-empty paths expected");
+            }
+            final String authority = call.argument(AUTHORITY);
+            final String mimeType = call.argument(TYPE) != null ? (String) call.argument(TYPE) : ShareType.TYPE_FILE.toString();
+            final String title = call.argument(TITLE) != null ? (String) call.argument(TITLE) : "";
+            final String text = call.argument(TEXT) != null ? (String) call.argument(TEXT) : "";
+
+            // Canonicalizing hundreds of paths touches the file system, only the chooser needs the main thread
+            runInBackground(result, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    final ArrayList<Uri> uris = getUris(paths, authority);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            shareMultiple(uris, mimeType, title, text);
+                        }
+                    });
+                    return null;
+                }
+            });
+            return;
+        }
+
+        if (call.method.equals("shareBytes")) {
+            byte[] bytes = call.argument(BYTES);
+            if (bytes == null) {
+                throw new IllegalArgumentException("Bytes expected");
+            }
+            String mimeType = call.argument(TYPE) != null ? (String) call.argument(TYPE) : "application/octet-stream";
+            Uri uri = ShareBytesProvider.register(context, bytes, mimeType, (String) call.argument(NAME));
+            shareBytes(uri, mimeType, (String) call.argument(TITLE), (String) call.argument(TEXT));
+
+            result.success(uri.toString());
+            return;
+        }
+
+        if (call.method.equals("releaseBytes")) {
+            result.success(ShareBytesProvider.release(Uri.parse((String) call.argument(URI))));
+            return;
+        }
+
+        if (call.method.equals("getStats")) {
+            result.success(stats.snapshot(shareResolver.getQueueDepth()));
+            if (Boolean.TRUE.equals(call.argument(RESET))) {
+                stats.reset();
+            }
+            return;
+        }
+
+        if (call.method.equals("takePending")) {
+            Integer limit = call.argument(LIMIT);
+            final int count = limit != null ? limit : Integer.MAX_VALUE;
+            runInBackground(result, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return journal.take(count);
+                }
+            });
+            return;
+        }
+
+        if (call.method.equals("ackReceive")) {
+            final String shareId = call.argument(SHARE_ID);
+            shareHandles.release(shareId);
+            runInBackground(result, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return journal.remove(shareId);
+                }
+            });
+            return;
+        }
+
+        if (call.method.equals("cancelReceive")) {
+            result.success(shareResolver.cancel((String) call.argument(ID)));
+            return;
+        }
+
+        if (handleMethods.onMethodCall(call, result)) {
+            return;
+        }
+
         Log.i(TAG, "called non implemented method - " + call.method);
         result.notImplemented();
     }
 
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        progressSink = events;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        progressSink = null;
+    }
+
+    @Override
+    public void onTransferEvent(ShareTransfer transfer, String state, long bytes, long total) {
+        final Map<String, Object> event = new HashMap<>();
+        event.put(ID, transfer.id);
+        event.put(INDEX, transfer.index);
+        event.put(STATE, state);
+        event.put(BYTES, bytes);
+        event.put(TOTAL, total);
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (progressSink != null) {
+                    progressSink.success(event);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onSegmentEvent(ShareTransfer transfer, int segment, File file, long offset, long length, long total) {
+        final Map<String, Object> event = new HashMap<>();
+        event.put(ID, transfer.id);
+        event.put(INDEX, transfer.index);
+        event.put(STATE, ShareTransfer.STATE_SEGMENT);
+        event.put(BYTES, offset + length);
+        event.put(TOTAL, total);
+        event.put(SEGMENT, segment);
+        event.put(PATH, file.getAbsolutePath());
+        event.put(OFFSET, offset);
+        event.put(LENGTH, length);
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (progressSink != null) {
+                    progressSink.success(event);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs blocking provider I/O off the main thread and replies on it.
+     */
+    private void runInBackground(final MethodChannel.Result result, final Callable<Object> task) {
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Object value = null;
+                Exception error = null;
+                try {
+                    value = task.call();
+                } catch (Exception e) {
+                    error = e;
+                }
+
+                final Object reply = value;
+                final Exception failure = error;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failure == null) {
+                            result.success(reply);
+                        } else {
+                            result.error(failure.getClass().getSimpleName(), failure.getMessage(), null);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Version 2 payloads send {@code is_multiple} as a bool, version 1 as a bool or a string.
+     */
+    private static boolean isMultiple(MethodCall call) {
+        Object value = call.argument(IS_MULTIPLE);
+        return Boolean.TRUE.equals(value) || "true".equals(value);
+    }
+
+    /**
+     * @return item paths of a version 2 payload, or of the legacy {@code path} and {@code "0"},
+     * {@code "1"}, ... keys.
+     */
+    private static List<String> getPaths(MethodCall call) {
+        List<String> paths = new ArrayList<>();
+        if (call.hasArgument(ITEMS)) {
+            List<Map<String, Object>> items = call.argument(ITEMS);
+            for (Map<String, Object> item : items) {
+                paths.add((String) item.get(PATH));
+            }
+        } else if (call.hasArgument(PATH)) {
+            paths.add((String) call.argument(PATH));
+        } else {
+            for (int i = 0; call.hasArgument(Integer.toString(i)); i++) {
+                paths.add((String) call.argument(Integer.toString(i)));
+            }
+        }
+        return paths;
+    }
+
     private void share(String text, ShareType shareType, String title) {
-        share("", text, shareType, title, "");
+        share("", text, shareType, title, "", false);
     }
 
-    private void share(String path, String text, ShareType shareType, String title, String authority) {
+    /**
+     * Read access to a file shared through a {@link FileProvider} is granted to the chosen target
+     * only, via {@link ClipData} and {@link Intent#FLAG_GRANT_READ_URI_PERMISSION}.
+     *
+     * @param grantAllTargets additionally grant access to every app able to receive the share, for
+     *                        targets forwarding the uri without its clip data.
+     */
+    private void share(String path, String text, ShareType shareType, String title, String authority, boolean grantAllTargets) {
         if (!ShareType.TYPE_PLAIN_TEXT.equals(shareType) && (path == null || path.isEmpty())) {
             throw new IllegalArgumentException("Non-empty path expected");
         } else if (ShareType.TYPE_PLAIN_TEXT.equals(shareType) && (text == null || text.isEmpty())) {
@@ -132,29 +491,30 @@ public class FlutterSharePlugin implements MethodChannel.MethodCallHandler, Plug
             shareIntent.putExtra(Intent.EXTRA_SUBJECT, title);
         }
         if (!ShareType.TYPE_PLAIN_TEXT.equals(shareType)) {
-            Log.i(TAG, "path: " + path + ", authority: " + authority);
+            stats.log(TAG, "path: " + path + ", authority: " + authority);
 
             Uri uri;
             if (authority.isEmpty()) {
                 uri = Uri.parse(path);
             } else {
-                Context context = mRegistrar.context();
-
                 File file = new File(path);
                 uri = FileProvider.getUriForFile(context, authority, file);
 
-                List<ResolveInfo> resInfoList = context.getPackageManager().queryIntentActivities(shareIntent, PackageManager.MATCH_DEFAULT_ONLY);
-                for (ResolveInfo resolveInfo : resInfoList) {
-                    String packageName = resolveInfo.activityInfo.packageName;
-                    context.grantUriPermission(packageName, uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                if (grantAllTargets) {
+                    for (ResolveInfo resolveInfo : ShareTargetResolver.getInstance(context).query(shareType.toString())) {
+                        String packageName = resolveInfo.activityInfo.packageName;
+                        context.grantUriPermission(packageName, uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                    }
                 }
             }
 
-            Log.i(TAG, "uri path: " + uri.toString());
+            stats.log(TAG, "uri path: " + uri.toString());
 
             shareIntent.setType(shareType.toString());
 
             shareIntent.putExtra(Intent.EXTRA_STREAM, uri);
+            // The chooser passes clip data and grant flags on to the chosen target
+            shareIntent.setClipData(ClipData.newRawUri(null, uri));
             shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
 
             if (!TextUtils.isEmpty(text)) {
@@ -165,16 +525,26 @@ public class FlutterSharePlugin implements MethodChannel.MethodCallHandler, Plug
             shareIntent.setType(shareType.toString());
         }
 
-        Intent chooserIntent = Intent.createChooser(shareIntent, null /* dialog title optional */);
-        if (mRegistrar.activity() != null) {
-            mRegistrar.activity().startActivity(chooserIntent);
-        } else {
-            chooserIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            mRegistrar.context().startActivity(chooserIntent);
+        startChooser(shareIntent);
+    }
+
+    /**
+     * @return {@link FileProvider} uris of local files, or the paths parsed as uris when no authority is given.
+     */
+    private ArrayList<Uri> getUris(List<String> paths, String authority) {
+        ArrayList<Uri> uris = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            if (TextUtils.isEmpty(path)) {
+                throw new IllegalArgumentException("Non-empty path expected");
+            }
+            uris.add(TextUtils.isEmpty(authority)
+                    ? Uri.parse(path)
+                    : FileProvider.getUriForFile(context, authority, new File(path)));
         }
+        return uris;
     }
 
-    private void shareMultiple(ArrayList<Uri> dataList, String mimeType, String title) {
+    private void shareMultiple(ArrayList<Uri> dataList, String mimeType, String title, String text) {
         if (dataList == null || dataList.isEmpty()) {
             throw new IllegalArgumentException("Non-empty data expected");
         }
@@ -189,156 +559,119 @@ public class FlutterSharePlugin implements MethodChannel.MethodCallHandler, Plug
             shareIntent.putExtra(Intent.EXTRA_SUBJECT, title);
         }
 
+        if (!TextUtils.isEmpty(text)) {
+            shareIntent.putExtra(Intent.EXTRA_TEXT, text);
+        }
+
         shareIntent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, dataList);
         shareIntent.setType(mimeType);
 
-        Intent chooserIntent = Intent.createChooser(shareIntent, null /* dialog title optional */);
-        if (mRegistrar.activity() != null) {
-            mRegistrar.activity().startActivity(chooserIntent);
-        } else {
-            chooserIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            mRegistrar.context().startActivity(chooserIntent);
+        // One grant for the whole batch, passed on by the chooser to the chosen target
+        ClipData clipData = ClipData.newRawUri(null, dataList.get(0));
+        for (int i = 1; i < dataList.size(); i++) {
+            clipData.addItem(new ClipData.Item(dataList.get(i)));
         }
-    }
-
-    private boolean processShareIntent(Intent intent) {
-        String action = intent.getAction();
-        String type = intent.getType();
-
-        Map<String, String> params = new HashMap<>();
-
-        if (Intent.ACTION_SEND.equals(action) && type != null) {
-
-            // In some cases files are shared with type == text/plain so this check corrects type
-            Uri sharedUri = intent.getParcelableExtra(Intent.EXTRA_STREAM);
-            if (sharedUri != null && "text/plain".equals(type)) {
-                type = "*/*";
-            }
-
-            if ("text/plain".equals(type)) {
-                String sharedTitle = intent.getStringExtra(Intent.EXTRA_SUBJECT);
-                Log.i(TAG, "receiving shared title: " + sharedTitle);
+        shareIntent.setClipData(clipData);
+        shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
 
-                String sharedText = intent.getStringExtra(Intent.EXTRA_TEXT);
-                Log.i(TAG, "receiving shared text: " + sharedText);
-
-                params.put(TYPE, type);
-                params.put(TEXT, sharedText);
-
-                if (!TextUtils.isEmpty(sharedTitle)) {
-                    params.put(TITLE, sharedTitle);
-                }
-            } else {
-                String sharedTitle = intent.getStringExtra(Intent.EXTRA_SUBJECT);
-                Log.i(TAG, "receiving shared title: " + sharedTitle);
-
-                Log.i(TAG, "receiving shared file: " + sharedUri);
-
-                if (sharedTitle == null || sharedTitle.isEmpty()) {
-                    sharedTitle = this.getFileName(mRegistrar.context(), sharedUri);
-                }
-
-                String path = FileHelper.getPath(mRegistrar.context(), sharedUri);
-                if (path != null) {
-                    params.put(TYPE, type);
-                    params.put(PATH, path);
-
-                    if (!TextUtils.isEmpty(sharedTitle)) {
-                        params.put(TITLE, sharedTitle);
-                    }
-
-                    if (!intent.hasExtra(Intent.EXTRA_TEXT)) {
-                        params.put(TEXT, intent.getStringExtra(Intent.EXTRA_TEXT));
-                    }
-                }
-
-            }
-
-        } else if (Intent.ACTION_SEND_MULTIPLE.equals(action) && type != null) {
-            Log.i(TAG, "receiving shared files!");
-
-            ArrayList<Uri> uris = intent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
-
-            params.put(TYPE, type);
-            params.put(IS_MULTIPLE, "true");
+        startChooser(shareIntent);
+    }
 
-            for (int i = 0; i < uris.size(); i++) {
-                Uri sharedUri = uris.get(i);
-                String path = FileHelper.getPath(mRegistrar.context(), sharedUri);
+    private void shareBytes(Uri uri, String mimeType, String title, String text) {
+        Intent shareIntent = new Intent();
+        shareIntent.setAction(Intent.ACTION_SEND);
 
-                if (path != null) params.put(Integer.toString(i), path);
-            }
+        if (!TextUtils.isEmpty(title)) {
+            shareIntent.putExtra(Intent.EXTRA_SUBJECT, title);
+        }
+        if (!TextUtils.isEmpty(text)) {
+            shareIntent.putExtra(Intent.EXTRA_TEXT, text);
         }
 
-        Log.i(TAG, params.toString());
-
-        methodChannel.invokeMethod("onReceive", params);
+        shareIntent.setType(mimeType);
+        shareIntent.putExtra(Intent.EXTRA_STREAM, uri);
+        shareIntent.setClipData(ClipData.newRawUri(null, uri));
+        shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
 
-        return false;
+        startChooser(shareIntent);
     }
 
-    private boolean isVirtualFile(Context context, Uri uri) {
-        final String authority = uri.getAuthority();
-        if ("com.google.android.apps.docs.storage.legacy".equals(authority)) {
-            return true;
-        }
-
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-            return false;
+    private void startChooser(Intent shareIntent) {
+        Intent chooserIntent = Intent.createChooser(shareIntent, null /* dialog title optional */);
+        if (activity != null) {
+            activity.startActivity(chooserIntent);
+        } else {
+            chooserIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            context.startActivity(chooserIntent);
         }
+    }
 
-        if (!DocumentsContract.isDocumentUri(context, uri)) {
+    /**
+     * @param launch whether the intent launched the activity, which is then also redelivered to
+     *               an activity recreated after process death.
+     */
+    private boolean processShareIntent(Intent intent, final boolean launch) {
+        // Relaunching from recents replays the intent, its share is already in the journal if unhandled
+        if (intent.getBooleanExtra(EXTRA_RECEIVED, false)
+                || (intent.getFlags() & Intent.FLAG_ACTIVITY_LAUNCHED_FROM_HISTORY) != 0) {
+            stats.log(TAG, "skipping share intent received before");
             return false;
         }
-
-        Cursor cursor = context.getContentResolver().query(
-                uri,
-                new String[] { DocumentsContract.Document.COLUMN_FLAGS },
-                null, null, null);
-        if (cursor == null) return false;
-
-        int flags = 0;
-        if (cursor.moveToFirst()) {
-            flags = cursor.getInt(0);
-        }
-        cursor.close();
-
-        return (flags & DocumentsContract.Document.FLAG_VIRTUAL_DOCUMENT) != 0;
+        intent.putExtra(EXTRA_RECEIVED, true);
+
+        final ShareRequest request = ShareRequest.fromIntent(intent);
+        final String identity = request.identity();
+        stats.log(TAG, "receiving shared " + request.type + ", title: " + request.title + ", items: " + request.uris);
+
+        // The journal may still be loading, contains and add would block the main thread
+        journal.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (launch && journal.contains(identity)) {
+                    stats.log(TAG, "skipping share intent journaled before");
+                    return;
+                }
+                resolve(request, journal.add(request, identity));
+            }
+        });
+        return false;
     }
 
-    private String getFileName(Context context, Uri uri) {
-        if (uri == null || !this.isVirtualFile(context, uri)) return null;
-
-        String result = null;
-        if ("content".equals(uri.getScheme())) {
-            Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
-            if (cursor == null) {
-                return null;
+    private void resolve(ShareRequest request, final String shareId) {
+        shareResolver.resolve(request, shareId, new ShareResolver.Callback() {
+            @Override
+            public void onStarted(Map<String, Object> params) {
+                // The background isolate only gets the complete share
+                if (backgroundIsolate == null) {
+                    methodChannel.invokeMethod("onReceiveStarted", params);
+                }
             }
 
-            try {
-                if (cursor.moveToFirst()) {
-                    result = cursor.getString(cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME));
+            @Override
+            public void onItemReady(Map<String, Object> params) {
+                if (backgroundIsolate == null) {
+                    methodChannel.invokeMethod("onItemReady", params);
                 }
-            } finally {
-                cursor.close();
             }
-        }
-        if (result == null) {
-            result = uri.getPath();
-            if (result != null) {
-                int cut = result.lastIndexOf('/');
-                if (cut != -1) {
-                    result = result.substring(cut + 1);
+
+            @Override
+            public void onResolved(Map<String, Object> params, boolean durable) {
+                stats.log(TAG, params.toString());
+                journal.resolved(shareId, params, durable);
+
+                // Before configure the share waits in the journal until Dart drains it
+                if (backgroundIsolate != null) {
+                    backgroundIsolate.deliver(journal.take(shareId));
+                } else if (configured) {
+                    methodChannel.invokeMethod("onReceive", journal.take(shareId));
                 }
             }
-        }
-        return result;
+        });
     }
 
     @Override
     public boolean onNewIntent(Intent intent) {
-        return processShareIntent(intent);
+        return processShareIntent(intent, false);
     }
 
     public enum ShareType {
@@ -0,0 +1,209 @@
+package team.tada.flutter_share;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.os.Build;
+import android.util.Size;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Optional stage turning a received image into a downscaled copy and a thumbnail, see
+ * {@link ReceiveOptions#imageMaxDimension} and {@link ReceiveOptions#thumbnailSize}.
+ * <p>
+ * The source is decoded once, already subsampled close to the largest requested output, so peak
+ * memory depends on the output sizes rather than on the resolution of the original. Outputs are
+ * entries of the {@link ShareCache}, keyed by the source file and every setting that shapes them,
+ * so they follow the storage target, take part in eviction and are reused when the same file is
+ * received again with the same settings. The source and the outputs are pinned for the share being
+ * resolved, writing one output never evicts the other.
+ */
+class ImageProcessor {
+
+    static final String FORMAT_JPEG = "jpeg";
+    static final String FORMAT_WEBP = "webp";
+
+    static class Result {
+        /**
+         * Null if no downscaled copy was requested.
+         */
+        final String scaledPath;
+        /**
+         * Null if no thumbnail was requested.
+         */
+        final String thumbnailPath;
+
+        Result(String scaledPath, String thumbnailPath) {
+            this.scaledPath = scaledPath;
+            this.thumbnailPath = thumbnailPath;
+        }
+    }
+
+    private final ShareCache cache;
+    private final ReceiveOptions options;
+    private final String shareId;
+
+    /**
+     * @param shareId share the outputs are pinned for, see {@link ShareCache#pin}.
+     */
+    ImageProcessor(ShareCache cache, ReceiveOptions options, String shareId) {
+        this.cache = cache;
+        this.options = options;
+        this.shareId = shareId;
+    }
+
+    static boolean isEnabled(ReceiveOptions options) {
+        return options.imageMaxDimension > 0 || options.thumbnailSize > 0;
+    }
+
+    Result process(File source) throws IOException {
+        cache.pin(shareId, source);
+        String sourceKey = source.getAbsolutePath() + '|' + source.length() + '|' + source.lastModified()
+                + '|' + options.imageFormat + '|' + options.imageQuality;
+        String scaledKey = options.imageMaxDimension > 0
+                ? ShareCache.sha1(sourceKey + "|scaled|" + options.imageMaxDimension) : null;
+        String thumbnailKey = options.thumbnailSize > 0
+                ? ShareCache.sha1(sourceKey + "|thumbnail|" + options.thumbnailSize) : null;
+        File scaled = scaledKey != null ? cache.get(scaledKey) : null;
+        File thumbnail = thumbnailKey != null ? cache.get(thumbnailKey) : null;
+        cache.pin(shareId, scaled);
+        cache.pin(shareId, thumbnail);
+
+        if ((scaledKey == null || scaled != null) && (thumbnailKey == null || thumbnail != null)) {
+            return new Result(getPath(scaled), getPath(thumbnail));
+        }
+
+        Bitmap bitmap = decode(source, Math.max(options.imageMaxDimension, options.thumbnailSize));
+        if (bitmap == null) {
+            throw new IOException("Can not decode " + source);
+        }
+        String extension = FORMAT_WEBP.equals(options.imageFormat) ? ".webp" : ".jpg";
+        try {
+            if (scaledKey != null && scaled == null) {
+                scaled = write(bitmap, options.imageMaxDimension, scaledKey, "scaled" + extension);
+            }
+            if (thumbnailKey != null && thumbnail == null) {
+                thumbnail = write(bitmap, options.thumbnailSize, thumbnailKey, "thumbnail" + extension);
+            }
+        } finally {
+            bitmap.recycle();
+        }
+        return new Result(getPath(scaled), getPath(thumbnail));
+    }
+
+    private static String getPath(File file) {
+        return file != null ? file.getAbsolutePath() : null;
+    }
+
+    /**
+     * @return the image upright, its longest side at most about twice {@code target}.
+     */
+    private static Bitmap decode(File source, int target) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return decodeWithImageDecoder(source, target);
+        }
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getAbsolutePath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        decodeOptions.inSampleSize = 1;
+        int longest = Math.max(bounds.outWidth, bounds.outHeight);
+        while (longest / (decodeOptions.inSampleSize * 2) >= target) {
+            decodeOptions.inSampleSize *= 2;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(source.getAbsolutePath(), decodeOptions);
+        if (bitmap == null) {
+            return null;
+        }
+
+        int degrees = new ExifInterface(source.getAbsolutePath()).getAttributeInt(
+                ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        switch (degrees) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return rotate(bitmap, 90);
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return rotate(bitmap, 180);
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return rotate(bitmap, 270);
+            default:
+                return bitmap;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.P)
+    private static Bitmap decodeWithImageDecoder(File source, final int target) throws IOException {
+        return ImageDecoder.decodeBitmap(ImageDecoder.createSource(source), new ImageDecoder.OnHeaderDecodedListener() {
+            @Override
+            public void onHeaderDecoded(ImageDecoder decoder, ImageDecoder.ImageInfo info, ImageDecoder.Source source) {
+                // Hardware bitmaps can not be compressed
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                Size size = info.getSize();
+                float scale = (float) target / Math.max(size.getWidth(), size.getHeight());
+                if (scale < 1) {
+                    decoder.setTargetSize(Math.max(1, Math.round(size.getWidth() * scale)),
+                            Math.max(1, Math.round(size.getHeight() * scale)));
+                }
+            }
+        });
+    }
+
+    private static Bitmap rotate(Bitmap bitmap, int degrees) {
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    /**
+     * Encodes {@code bitmap} into a new cache entry. Concurrent runs for the same source write
+     * their own temporary file, the last rename wins.
+     *
+     * @return the file registered in the cache.
+     */
+    private File write(Bitmap bitmap, int maxDimension, String key, String fileName) throws IOException {
+        File dst = cache.newFile(key, fileName);
+        float scale = (float) maxDimension / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        Bitmap output = scale < 1
+                ? Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true)
+                : bitmap;
+
+        File tmp = new File(dst.getParentFile(), "." + dst.getName() + "." + UUID.randomUUID() + CopyEngine.PART_SUFFIX);
+        try (FileOutputStream stream = new FileOutputStream(tmp)) {
+            Bitmap.CompressFormat format = FORMAT_WEBP.equals(options.imageFormat)
+                    ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG;
+            if (!output.compress(format, options.imageQuality, stream)) {
+                throw new IOException("Can not encode " + dst);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            if (output != bitmap) {
+                output.recycle();
+            }
+        }
+        if (!tmp.renameTo(dst)) {
+            tmp.delete();
+            throw new IOException("Can not rename " + tmp);
+        }
+        File file = cache.put(key, dst, null);
+        cache.pin(shareId, file);
+        return file;
+    }
+}
@@ -0,0 +1,278 @@
+package team.tada.flutter_share;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Mime types of received content with as little provider traffic as possible.
+ * <p>
+ * Types returned by {@link android.content.ContentResolver#getType} are memoized per authority
+ * and file suffix, as providers type their files by name. When a provider reports no type or only
+ * a generic one, the type is sniffed from the first bytes of the content, which the copy already
+ * holds in memory.
+ */
+class MimeResolver {
+
+    private static final String TAG = "MimeResolver";
+
+    static final String OCTET_STREAM = "application/octet-stream";
+
+    /**
+     * Bytes of the content needed by {@link #sniff(byte[])}.
+     */
+    static final int HEADER_SIZE = 32;
+
+    private static final int MEMO_SIZE = 128;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final Map<String, String> reported = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MEMO_SIZE;
+        }
+    };
+
+    private MimeResolver() {
+    }
+
+    /**
+     * @return whether {@code type} says more than that the content is some bytes.
+     */
+    static boolean isSpecific(String type) {
+        return type != null && !type.isEmpty() && !OCTET_STREAM.equals(type) && !"*/*".equals(type)
+                && !type.endsWith("/*");
+    }
+
+    /**
+     * @param name display name of the content, its suffix is part of the memo key.
+     * @return type reported by the provider of {@code uri}, null if it reports none. Only
+     * reported types are memoized, a provider may start typing the same files later.
+     */
+    static String getReportedType(Context context, Uri uri, String name) {
+        String suffix = getSuffix(name);
+        String key = suffix != null ? uri.getAuthority() + '|' + suffix : null;
+        if (key != null) {
+            synchronized (reported) {
+                String memoized = reported.get(key);
+                if (memoized != null) {
+                    return memoized;
+                }
+            }
+        }
+
+        String type;
+        ShareStats stats = ShareStats.getInstance();
+        long start = stats.begin(ShareStats.STAGE_MIME);
+        try {
+            type = context.getContentResolver().getType(uri);
+        } finally {
+            stats.end(ShareStats.STAGE_MIME, start);
+        }
+
+        if (key != null && type != null) {
+            synchronized (reported) {
+                reported.put(key, type);
+            }
+        }
+        return type;
+    }
+
+    /**
+     * @return type registered for the suffix of {@code name}, null if unknown.
+     */
+    static String getTypeFromName(String name) {
+        String suffix = getSuffix(name);
+        return suffix != null ? MimeTypeMap.getSingleton().getMimeTypeFromExtension(suffix) : null;
+    }
+
+    static String getExtension(String type) {
+        if (type == null) {
+            return null;
+        }
+        String extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(type);
+        if (extension != null) {
+            return extension;
+        }
+        // Not registered on older releases
+        switch (type) {
+            case "image/heic":
+                return "heic";
+            case "image/heif":
+                return "heif";
+            case "image/avif":
+                return "avif";
+            default:
+                return null;
+        }
+    }
+
+    private static String getSuffix(String name) {
+        if (name == null) {
+            return null;
+        }
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot == name.length() - 1 || name.indexOf('/', dot) >= 0) {
+            return null;
+        }
+        return name.substring(dot + 1).toLowerCase(Locale.US);
+    }
+
+    /**
+     * Sniffs the start of a file, for content that did not pass through a copy buffer.
+     */
+    static String sniff(File file) {
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        try (FileInputStream input = new FileInputStream(file)) {
+            int read;
+            while (length < header.length && (read = input.read(header, length, header.length - length)) > 0) {
+                length += read;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read " + file, e);
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        System.arraycopy(header, 0, bytes, 0, length);
+        return sniff(bytes);
+    }
+
+    /**
+     * @param header first bytes of the content, up to {@link #HEADER_SIZE}.
+     * @return type recognized from the magic bytes, null if unknown.
+     */
+    static String sniff(byte[] header) {
+        if (header == null) {
+            return null;
+        }
+        if (startsWith(header, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(header, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (startsWith(header, 0, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(header, 0, 'R', 'I', 'F', 'F')) {
+            if (startsWith(header, 8, 'W', 'E', 'B', 'P')) {
+                return "image/webp";
+            }
+            if (startsWith(header, 8, 'W', 'A', 'V', 'E')) {
+                return "audio/x-wav";
+            }
+            if (startsWith(header, 8, 'A', 'V', 'I', ' ')) {
+                return "video/x-msvideo";
+            }
+            return null;
+        }
+        if (startsWith(header, 4, 'f', 't', 'y', 'p') && header.length >= 12) {
+            return getBrandType(new String(header, 8, 4, ASCII));
+        }
+        if (startsWith(header, 0, '%', 'P', 'D', 'F')) {
+            return "application/pdf";
+        }
+        if (startsWith(header, 0, 'P', 'K', 0x03, 0x04)) {
+            return "application/zip";
+        }
+        if (startsWith(header, 0, 0x1F, 0x8B)) {
+            return "application/gzip";
+        }
+        if (startsWith(header, 0, 0x1A, 0x45, 0xDF, 0xA3)) {
+            return "video/x-matroska";
+        }
+        if (startsWith(header, 0, 'I', 'D', '3')) {
+            return "audio/mpeg";
+        }
+        if (startsWith(header, 0, 'O', 'g', 'g', 'S')) {
+            return "audio/ogg";
+        }
+        if (startsWith(header, 0, 'f', 'L', 'a', 'C')) {
+            return "audio/flac";
+        }
+        // Two letters alone are too common, also check the size of the DIB header
+        if (startsWith(header, 0, 'B', 'M') && header.length > 14
+                && (header[14] == 12 || header[14] == 40 || header[14] == 108 || header[14] == 124)) {
+            return "image/bmp";
+        }
+        if (startsWith(header, 0, 'I', 'I', 0x2A, 0x00) || startsWith(header, 0, 'M', 'M', 0x00, 0x2A)) {
+            return "image/tiff";
+        }
+        return null;
+    }
+
+    /**
+     * @return type of an ISO base media file by its major brand, null for brands not listed.
+     */
+    private static String getBrandType(String brand) {
+        switch (brand) {
+            case "heic":
+            case "heix":
+            case "heim":
+            case "heis":
+                return "image/heic";
+            case "mif1":
+            case "msf1":
+                // Generic HEIF, the codec is only named by later brands
+                return "image/heif";
+            case "avif":
+            case "avis":
+                return "image/avif";
+            case "isom":
+            case "iso2":
+            case "iso4":
+            case "iso5":
+            case "iso6":
+            case "mp41":
+            case "mp42":
+            case "avc1":
+            case "dash":
+            case "M4V ":
+            case "M4VH":
+            case "M4VP":
+                return "video/mp4";
+            case "M4A ":
+            case "M4B ":
+                return "audio/mp4";
+            case "qt  ":
+                return "video/quicktime";
+            case "3gp4":
+            case "3gp5":
+            case "3gp6":
+            case "3gp7":
+            case "3gp8":
+            case "3ge6":
+            case "3ge7":
+            case "3gg6":
+                return "video/3gpp";
+            case "3g2a":
+            case "3g2b":
+            case "3g2c":
+                return "video/3gpp2";
+            default:
+                return null;
+        }
+    }
+
+    private static boolean startsWith(byte[] header, int offset, int... magic) {
+        if (header.length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,213 @@
+package team.tada.flutter_share;
+
+import io.flutter.plugin.common.MethodCall;
+
+/**
+ * Receive side settings passed by Dart in the {@code configure} call.
+ */
+class ReceiveOptions {
+
+    static final String CONCURRENCY = "concurrency";
+    static final String RECEIVE_MODE = "receive_mode";
+    static final String CACHE_MAX_BYTES = "cache_max_bytes";
+    static final String PAYLOAD_VERSION = "payload_version";
+    static final String IMAGE_MAX_DIMENSION = "image_max_dimension";
+    static final String THUMBNAIL_SIZE = "thumbnail_size";
+    static final String IMAGE_FORMAT = "image_format";
+    static final String IMAGE_QUALITY = "image_quality";
+    static final String STORAGE_TARGET = "storage_target";
+    static final String STORAGE_DIRECTORY = "storage_directory";
+    static final String VERBOSE_LOGGING = "verbose_logging";
+    static final String EARLY_DELIVERY = "early_delivery";
+    static final String DIGEST_ALGORITHM = "digest_algorithm";
+    static final String SEGMENT_BYTES = "segment_bytes";
+
+    /**
+     * Shared content is copied into app storage and Dart receives its path.
+     */
+    static final String MODE_COPY = "copy";
+    /**
+     * Nothing is copied, Dart receives a {@link ShareHandles} id to read the content from.
+     */
+    static final String MODE_HANDLE = "handle";
+    /**
+     * Shared content is written out as files of {@link #segmentBytes} each, announced one by one
+     * while the copy runs. Dart receives the directory holding them.
+     */
+    static final String MODE_SEGMENTS = "segments";
+
+    static final ReceiveOptions DEFAULT = new ReceiveOptions(1, MODE_COPY, 512L * 1024 * 1024,
+            SharePayload.VERSION_LEGACY, 0, 0, ImageProcessor.FORMAT_JPEG, 85, StorageTarget.FILES, null, false, false, null,
+            8L * 1024 * 1024);
+
+    /**
+     * How many items of an {@code ACTION_SEND_MULTIPLE} batch are resolved at the same time.
+     * 1 keeps the items strictly sequential.
+     */
+    final int concurrency;
+    final String receiveMode;
+    /**
+     * Byte budget of the {@link ShareCache} received files are copied into.
+     */
+    final long cacheMaxBytes;
+    /**
+     * Layout of the {@code onReceive} arguments, see {@link SharePayload}.
+     */
+    final int payloadVersion;
+    /**
+     * Longest side of the downscaled copy made of received images, 0 to not make one.
+     */
+    final int imageMaxDimension;
+    /**
+     * Longest side of the thumbnail made of received images, 0 to not make one.
+     */
+    final int thumbnailSize;
+    final String imageFormat;
+    final int imageQuality;
+    /**
+     * One of the {@link StorageTarget} constants.
+     */
+    final String storageTarget;
+    /**
+     * Directory copies are stored in for {@link StorageTarget#CUSTOM}, null otherwise.
+     */
+    final String storageDirectory;
+    /**
+     * Logs every received share and item, see {@link ShareStats#log}.
+     */
+    final boolean verboseLogging;
+    /**
+     * Reports items to Dart while a share is resolved, see {@link ShareResolver.Callback}.
+     */
+    final boolean earlyDelivery;
+    /**
+     * {@link ContentDigest} sent with every received file, null to not compute one.
+     */
+    final String digestAlgorithm;
+    final long segmentBytes;
+
+    private ReceiveOptions(int concurrency, String receiveMode, long cacheMaxBytes, int payloadVersion,
+                           int imageMaxDimension, int thumbnailSize, String imageFormat, int imageQuality,
+                           String storageTarget, String storageDirectory, boolean verboseLogging,
+                           boolean earlyDelivery, String digestAlgorithm, long segmentBytes) {
+        this.concurrency = concurrency;
+        this.receiveMode = receiveMode;
+        this.cacheMaxBytes = cacheMaxBytes;
+        this.payloadVersion = payloadVersion;
+        this.imageMaxDimension = imageMaxDimension;
+        this.thumbnailSize = thumbnailSize;
+        this.imageFormat = imageFormat;
+        this.imageQuality = imageQuality;
+        this.storageTarget = storageTarget;
+        this.storageDirectory = storageDirectory;
+        this.verboseLogging = verboseLogging;
+        this.earlyDelivery = earlyDelivery;
+        this.digestAlgorithm = digestAlgorithm;
+        this.segmentBytes = segmentBytes;
+    }
+
+    boolean isHandleMode() {
+        return MODE_HANDLE.equals(receiveMode);
+    }
+
+    boolean isSegmentsMode() {
+        return MODE_SEGMENTS.equals(receiveMode);
+    }
+
+    static ReceiveOptions fromCall(MethodCall call) {
+        int concurrency = DEFAULT.concurrency;
+        if (call.hasArgument(CONCURRENCY)) {
+            Integer value = call.argument(CONCURRENCY);
+            if (value != null) {
+                concurrency = value;
+            }
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Positive concurrency expected");
+        }
+
+        String receiveMode = DEFAULT.receiveMode;
+        if (call.hasArgument(RECEIVE_MODE)) {
+            receiveMode = call.argument(RECEIVE_MODE);
+        }
+        if (!MODE_COPY.equals(receiveMode) && !MODE_HANDLE.equals(receiveMode) && !MODE_SEGMENTS.equals(receiveMode)) {
+            throw new IllegalArgumentException("Unknown receive mode " + receiveMode);
+        }
+
+        long cacheMaxBytes = DEFAULT.cacheMaxBytes;
+        if (call.hasArgument(CACHE_MAX_BYTES)) {
+            Number value = call.argument(CACHE_MAX_BYTES);
+            if (value != null) {
+                cacheMaxBytes = value.longValue();
+            }
+        }
+        if (cacheMaxBytes < 0) {
+            throw new IllegalArgumentException("Non-negative cache size expected");
+        }
+
+        int payloadVersion = DEFAULT.payloadVersion;
+        if (call.hasArgument(PAYLOAD_VERSION)) {
+            Integer value = call.argument(PAYLOAD_VERSION);
+            if (value != null) {
+                payloadVersion = value;
+            }
+        }
+        if (payloadVersion != SharePayload.VERSION_LEGACY && payloadVersion != SharePayload.VERSION_STRUCTURED) {
+            throw new IllegalArgumentException("Unsupported payload version " + payloadVersion);
+        }
+
+        int imageMaxDimension = getInt(call, IMAGE_MAX_DIMENSION, DEFAULT.imageMaxDimension);
+        int thumbnailSize = getInt(call, THUMBNAIL_SIZE, DEFAULT.thumbnailSize);
+        if (imageMaxDimension < 0 || thumbnailSize < 0) {
+            throw new IllegalArgumentException("Non-negative image sizes expected");
+        }
+
+        String imageFormat = DEFAULT.imageFormat;
+        if (call.argument(IMAGE_FORMAT) != null) {
+            imageFormat = call.argument(IMAGE_FORMAT);
+        }
+        if (!ImageProcessor.FORMAT_JPEG.equals(imageFormat) && !ImageProcessor.FORMAT_WEBP.equals(imageFormat)) {
+            throw new IllegalArgumentException("Unknown image format " + imageFormat);
+        }
+
+        int imageQuality = getInt(call, IMAGE_QUALITY, DEFAULT.imageQuality);
+        if (imageQuality < 0 || imageQuality > 100) {
+            throw new IllegalArgumentException("Image quality between 0 and 100 expected");
+        }
+
+        String storageTarget = DEFAULT.storageTarget;
+        if (call.argument(STORAGE_TARGET) != null) {
+            storageTarget = call.argument(STORAGE_TARGET);
+        }
+        if (!StorageTarget.isValid(storageTarget)) {
+            throw new IllegalArgumentException("Unknown storage target " + storageTarget);
+        }
+        String storageDirectory = call.argument(STORAGE_DIRECTORY);
+        if (StorageTarget.CUSTOM.equals(storageTarget) && (storageDirectory == null || storageDirectory.isEmpty())) {
+            throw new IllegalArgumentException("Storage directory expected for a custom storage target");
+        }
+
+        String digestAlgorithm = call.argument(DIGEST_ALGORITHM);
+        if (digestAlgorithm != null && !ContentDigest.isValid(digestAlgorithm)) {
+            throw new IllegalArgumentException("Unknown digest algorithm " + digestAlgorithm);
+        }
+
+        long segmentBytes = DEFAULT.segmentBytes;
+        if (call.argument(SEGMENT_BYTES) != null) {
+            segmentBytes = ((Number) call.argument(SEGMENT_BYTES)).longValue();
+        }
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("Positive segment size expected");
+        }
+
+        return new ReceiveOptions(concurrency, receiveMode, cacheMaxBytes, payloadVersion,
+                imageMaxDimension, thumbnailSize, imageFormat, imageQuality, storageTarget, storageDirectory,
+                Boolean.TRUE.equals(call.argument(VERBOSE_LOGGING)), Boolean.TRUE.equals(call.argument(EARLY_DELIVERY)),
+                digestAlgorithm, segmentBytes);
+    }
+
+    private static int getInt(MethodCall call, String key, int fallback) {
+        Integer value = call.argument(key);
+        return value != null ? value : fallback;
+    }
+}
@@ -0,0 +1,53 @@
+package team.tada.flutter_share;
+
+import android.net.Uri;
+
+import java.util.List;
+
+/**
+ * Outcome of resolving one shared uri.
+ */
+class ReceivedItem {
+
+    final int index;
+    final Uri uri;
+    final ShareMetadata metadata;
+    /**
+     * Local path, or a {@link ShareHandles} id in {@link ReceiveOptions#MODE_HANDLE} mode. Null if
+     * the item could not be resolved.
+     */
+    final String path;
+    /**
+     * Outputs of the {@link ImageProcessor}, null if not requested or not an image.
+     */
+    final ImageProcessor.Result image;
+    /**
+     * Hex {@link ContentDigest} of the file at {@link #path}, null if not requested.
+     */
+    final String digest;
+    /**
+     * Segment files in order, only set in {@link ReceiveOptions#MODE_SEGMENTS} mode where
+     * {@link #path} is their directory.
+     */
+    final List<String> segments;
+
+    ReceivedItem(int index, Uri uri, ShareMetadata metadata, String path) {
+        this(index, uri, metadata, path, null, null);
+    }
+
+    ReceivedItem(int index, Uri uri, ShareMetadata metadata, String path, ImageProcessor.Result image,
+                 String digest) {
+        this(index, uri, metadata, path, image, digest, null);
+    }
+
+    ReceivedItem(int index, Uri uri, ShareMetadata metadata, String path, ImageProcessor.Result image,
+                 String digest, List<String> segments) {
+        this.index = index;
+        this.uri = uri;
+        this.metadata = metadata;
+        this.path = path;
+        this.image = image;
+        this.digest = digest;
+        this.segments = segments;
+    }
+}
@@ -0,0 +1,177 @@
+package team.tada.flutter_share;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.flutter.FlutterInjector;
+import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.embedding.engine.dart.DartExecutor;
+import io.flutter.embedding.engine.loader.FlutterLoader;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.view.FlutterCallbackInformation;
+
+/**
+ * Headless engine running the Dart share dispatcher, so received shares are handled in a
+ * background isolate and never block the UI isolate.
+ * <p>
+ * Shares received before the dispatcher reported back are queued and delivered once it is ready.
+ * A share is removed from the {@link ShareJournal} once the handler completed without error, shares
+ * not delivered when the engine is destroyed are returned to the journal. No plugins are registered
+ * on the engine, the handler only gets the handle methods of the share channel.
+ */
+class ShareBackgroundIsolate implements MethodChannel.MethodCallHandler {
+
+    private static final String TAG = "ShareBackgroundIsolate";
+    private static final String CHANNEL = "plugins.flutter.io/share_background";
+    private static final String SHARE_CHANNEL = "plugins.flutter.io/share";
+
+    private final Context context;
+    private final List<Map<String, Object>> pending = new ArrayList<>();
+    /**
+     * Ids of shares sent to the handler that did not complete yet.
+     */
+    private final Set<String> delivering = new HashSet<>();
+    private final ShareJournal journal;
+    private final ShareHandles handles;
+
+    private FlutterEngine engine;
+    private MethodChannel channel;
+    private MethodChannel shareChannel;
+    private ExecutorService handleExecutor;
+    private long handlerHandle;
+    private boolean ready;
+
+    ShareBackgroundIsolate(Context context) {
+        this.context = context.getApplicationContext();
+        this.journal = ShareJournal.getInstance(context);
+        this.handles = ShareHandles.getInstance(context);
+    }
+
+    /**
+     * Starts the engine if it is not running yet. Must be called on the main thread.
+     *
+     * @param dispatcherHandle callback handle of the Dart dispatcher entrypoint.
+     * @param handlerHandle callback handle of the user handler receiving shares.
+     */
+    void start(long dispatcherHandle, long handlerHandle) {
+        this.handlerHandle = handlerHandle;
+        if (engine != null) {
+            return;
+        }
+
+        FlutterCallbackInformation callback = FlutterCallbackInformation.lookupCallbackInformation(dispatcherHandle);
+        if (callback == null) {
+            throw new IllegalArgumentException("Unknown background dispatcher handle " + dispatcherHandle);
+        }
+
+        FlutterLoader loader = FlutterInjector.instance().flutterLoader();
+        loader.startInitialization(context);
+        loader.ensureInitializationComplete(context, null);
+
+        // Registering all plugins would attach a second FlutterSharePlugin to this engine
+        engine = new FlutterEngine(context, null, false);
+        channel = new MethodChannel(engine.getDartExecutor(), CHANNEL);
+        channel.setMethodCallHandler(this);
+
+        handleExecutor = Executors.newCachedThreadPool(new ShareResolver.WorkerThreadFactory("flutter_share-background-io"));
+        final ShareHandleMethods handleMethods = new ShareHandleMethods(handles, handleExecutor);
+        shareChannel = new MethodChannel(engine.getDartExecutor(), SHARE_CHANNEL);
+        shareChannel.setMethodCallHandler(new MethodChannel.MethodCallHandler() {
+            @Override
+            public void onMethodCall(MethodCall call, MethodChannel.Result result) {
+                if (!handleMethods.onMethodCall(call, result)) {
+                    result.notImplemented();
+                }
+            }
+        });
+
+        engine.getDartExecutor().executeDartCallback(
+                new DartExecutor.DartCallback(context.getAssets(), loader.findAppBundlePath(), callback));
+    }
+
+    void deliver(Map<String, Object> params) {
+        if (!ready) {
+            pending.add(params);
+            return;
+        }
+
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("handler", handlerHandle);
+        arguments.put("share", params);
+        final String shareId = (String) params.get(FlutterSharePlugin.SHARE_ID);
+        delivering.add(shareId);
+        channel.invokeMethod("onReceive", arguments, new MethodChannel.Result() {
+            @Override
+            public void success(Object result) {
+                delivering.remove(shareId);
+                handles.release(shareId);
+                journal.remove(shareId);
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+                // Kept in the journal, handed out again by the next process
+                delivering.remove(shareId);
+                Log.w(TAG, "handler failed for " + shareId + ": " + errorMessage);
+            }
+
+            @Override
+            public void notImplemented() {
+                delivering.remove(shareId);
+            }
+        });
+    }
+
+    void destroy() {
+        if (engine != null) {
+            channel.setMethodCallHandler(null);
+            shareChannel.setMethodCallHandler(null);
+            engine.destroy();
+            engine = null;
+            channel = null;
+            shareChannel = null;
+            handleExecutor.shutdown();
+            handleExecutor = null;
+        }
+        ready = false;
+
+        // Taken from the journal for this engine, hand them out again in this process
+        for (Map<String, Object> params : pending) {
+            journal.release((String) params.get(FlutterSharePlugin.SHARE_ID));
+        }
+        for (String shareId : delivering) {
+            journal.release(shareId);
+        }
+        if (!pending.isEmpty() || !delivering.isEmpty()) {
+            Log.w(TAG, "returning " + (pending.size() + delivering.size()) + " undelivered shares to the journal");
+        }
+        pending.clear();
+        delivering.clear();
+    }
+
+    @Override
+    public void onMethodCall(MethodCall call, MethodChannel.Result result) {
+        if (call.method.equals("initialized")) {
+            ready = true;
+            for (Map<String, Object> params : pending) {
+                deliver(params);
+            }
+            pending.clear();
+
+            result.success(null);
+            return;
+        }
+
+        result.notImplemented();
+    }
+}
@@ -0,0 +1,172 @@
+package team.tada.flutter_share;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Serves byte buffers shared from Dart straight from memory, so generated content never has to be
+ * written to a file before it can be shared.
+ * <p>
+ * Content is streamed through a pipe: receivers see its size through {@link OpenableColumns} but
+ * can not seek. Buffers are kept until released or until newer ones push them over
+ * {@link #MAX_BYTES}.
+ */
+public class ShareBytesProvider extends ContentProvider implements ContentProvider.PipeDataWriter<byte[]> {
+
+    private static final String TAG = "ShareBytesProvider";
+    private static final String AUTHORITY_SUFFIX = ".flutter_share.bytes";
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final String[] COLUMNS = {OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<>();
+    private static long totalBytes;
+
+    /**
+     * Registers {@code bytes} and returns the uri serving them, {@code content://<authority>/<id>/<name>}.
+     */
+    static Uri register(Context context, byte[] bytes, String mimeType, String name) {
+        String id = UUID.randomUUID().toString();
+        synchronized (entries) {
+            entries.put(id, new Entry(bytes, mimeType, name));
+            totalBytes += bytes.length;
+
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (totalBytes > MAX_BYTES && entries.size() > 1) {
+                Entry eldest = iterator.next().getValue();
+                iterator.remove();
+                totalBytes -= eldest.bytes.length;
+            }
+        }
+
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(context.getPackageName() + AUTHORITY_SUFFIX)
+                .appendPath(id)
+                .appendPath(name != null ? name : id)
+                .build();
+    }
+
+    static boolean release(Uri uri) {
+        synchronized (entries) {
+            Entry entry = entries.remove(getId(uri));
+            if (entry == null) {
+                return false;
+            }
+            totalBytes -= entry.bytes.length;
+            return true;
+        }
+    }
+
+    private static String getId(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.isEmpty() ? null : segments.get(0);
+    }
+
+    private static Entry get(Uri uri) {
+        synchronized (entries) {
+            return entries.get(getId(uri));
+        }
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        Entry entry = get(uri);
+        if (entry == null) {
+            return null;
+        }
+
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = entry.name;
+            } else if (OpenableColumns.SIZE.equals(projection[i])) {
+                row[i] = entry.bytes.length;
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        Entry entry = get(uri);
+        return entry != null ? entry.mimeType : null;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Read only: " + uri);
+        }
+        Entry entry = get(uri);
+        if (entry == null) {
+            throw new FileNotFoundException("Unknown or released: " + uri);
+        }
+        return openPipeHelper(uri, entry.mimeType, null, entry.bytes, this);
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts, byte[] bytes) {
+        // The descriptor is closed by openPipeHelper once this returns
+        try {
+            new FileOutputStream(output.getFileDescriptor()).write(bytes);
+        } catch (IOException e) {
+            // The reader closed its end early
+            Log.w(TAG, "writing " + uri + " failed", e);
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Read only provider");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read only provider");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read only provider");
+    }
+
+    private static class Entry {
+        final byte[] bytes;
+        final String mimeType;
+        final String name;
+
+        Entry(byte[] bytes, String mimeType, String name) {
+            this.bytes = bytes;
+            this.mimeType = mimeType;
+            this.name = name;
+        }
+    }
+}
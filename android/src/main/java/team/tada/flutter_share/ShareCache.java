@@ -0,0 +1,396 @@
+package team.tada.flutter_share;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Managed storage for copies of received files.
+ * <p>
+ * Entries are keyed by the source uri together with the size and modification time reported by
+ * its provider, so sharing the same item again returns the existing copy without any I/O.
+ * Copies whose content hash was computed during the copy share one file with an entry of the same
+ * hash; only buffered copies produce one, copies the kernel made with transferTo are deduplicated
+ * by their source key alone. The cache is kept under a byte budget by evicting the least recently
+ * used entries, except for files pinned by a share still being resolved. Its index is persisted
+ * next to the files when entries are added or evicted, hits only reorder the entries in memory.
+ */
+class ShareCache {
+
+    private static final String TAG = "ShareCache";
+    private static final String INDEX_FILE = "index.json";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String KEY = "key";
+    private static final String PATH = "path";
+    private static final String SIZE = "size";
+    private static final String HASH = "hash";
+
+    private static final Map<File, ShareCache> instances = new HashMap<>();
+
+    private final File dir;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CountDownLatch> copying = new HashMap<>();
+    private final Map<String, Set<File>> pinned = new HashMap<>();
+    private long maxBytes;
+    private boolean loaded;
+
+    private ShareCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache stored in {@code dir}, one instance per directory and process.
+     */
+    static synchronized ShareCache forDirectory(File dir, long maxBytes) {
+        ShareCache cache = instances.get(dir);
+        if (cache == null) {
+            cache = new ShareCache(dir, maxBytes);
+            instances.put(dir, cache);
+        }
+        return cache;
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        if (loaded) {
+            trim(null);
+            save();
+        }
+    }
+
+    /**
+     * @return key identifying the current version of the content behind the uri, null if the
+     * provider does not report a size and a copy can not be safely reused.
+     */
+    static String sourceKey(ShareMetadata metadata) {
+        if (metadata.size < 0) {
+            return null;
+        }
+        return sha1(metadata.uri.toString() + '|' + metadata.size + '|' + metadata.lastModified);
+    }
+
+    /**
+     * @return the cached copy for {@code key}, null on a miss. The recency of a hit is persisted
+     * with the next change of the index.
+     */
+    synchronized File get(String key) {
+        load();
+
+        Entry entry = key != null ? entries.get(key) : null;
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.file.exists()) {
+            remove(key);
+            save();
+            return null;
+        }
+        return entry.file;
+    }
+
+    /**
+     * @return location for a new copy of {@code fileName}. A null key gets a unique one-off
+     * directory, such an entry takes part in eviction but is never returned by {@link #get}.
+     */
+    File newFile(String key, String fileName) {
+        File entryDir = new File(dir, key != null ? key : "tmp-" + UUID.randomUUID());
+        if (!entryDir.isDirectory() && !entryDir.mkdirs()) {
+            Log.w(TAG, "failed to create " + entryDir);
+        }
+        return new File(entryDir, fileName);
+    }
+
+    /**
+     * Claims the copy of {@code key}, so that concurrent shares of the same content do not copy it
+     * twice. Pair a successful claim with {@link #endCopy}.
+     *
+     * @return null if the caller now owns the copy, otherwise a latch released once the copy
+     * running elsewhere ended, after which {@link #get} should be checked again.
+     */
+    synchronized CountDownLatch beginCopy(String key) {
+        CountDownLatch running = copying.get(key);
+        if (running == null) {
+            copying.put(key, new CountDownLatch(1));
+        }
+        return running;
+    }
+
+    synchronized void endCopy(String key) {
+        CountDownLatch running = copying.remove(key);
+        if (running != null) {
+            running.countDown();
+        }
+    }
+
+    /**
+     * Keeps {@code file} from being evicted until {@link #unpin} is called for {@code owner}, so a
+     * share does not evict its own earlier items and outputs while it is being resolved.
+     */
+    synchronized void pin(String owner, File file) {
+        if (owner == null || file == null) {
+            return;
+        }
+        Set<File> files = pinned.get(owner);
+        if (files == null) {
+            files = new HashSet<>();
+            pinned.put(owner, files);
+        }
+        files.add(file);
+    }
+
+    /**
+     * Releases the files pinned by {@code owner} in every cache and evicts what went over budget.
+     */
+    static void unpin(String owner) {
+        ShareCache[] caches;
+        synchronized (ShareCache.class) {
+            caches = instances.values().toArray(new ShareCache[0]);
+        }
+        for (ShareCache cache : caches) {
+            cache.unpinOwner(owner);
+        }
+    }
+
+    private synchronized void unpinOwner(String owner) {
+        if (pinned.remove(owner) != null && loaded) {
+            trim(null);
+            save();
+        }
+    }
+
+    private boolean isPinned(File file) {
+        for (Set<File> files : pinned.values()) {
+            if (files.contains(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers a finished copy.
+     *
+     * @param hash content hash, may be null if it was not computed during the copy.
+     * @return file to hand out, an existing one if the same content is already cached.
+     */
+    synchronized File put(String key, File file, byte[] hash) {
+        load();
+
+        if (key == null) {
+            key = file.getParentFile().getName();
+        }
+        Entry previous = entries.remove(key);
+        if (previous != null && !previous.file.equals(file)) {
+            release(previous);
+        }
+
+        String hex = hash != null ? toHex(hash) : null;
+        if (hex != null) {
+            for (Entry entry : entries.values()) {
+                if (hex.equals(entry.hash) && entry.file.exists() && !entry.file.equals(file)) {
+                    deleteEntryFile(file);
+                    file = entry.file;
+                    break;
+                }
+            }
+        }
+
+        entries.put(key, new Entry(file, file.length(), hex));
+
+        trim(key);
+        save();
+        return file;
+    }
+
+    private void trim(String keep) {
+        long totalBytes = totalBytes();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(keep) || isPinned(eldest.getValue().file)) {
+                continue;
+            }
+            iterator.remove();
+            if (release(eldest.getValue())) {
+                totalBytes -= eldest.getValue().size;
+            }
+        }
+    }
+
+    private long totalBytes() {
+        Set<File> counted = new HashSet<>();
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            if (counted.add(entry.file)) {
+                total += entry.size;
+            }
+        }
+        return total;
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    /**
+     * Deletes the file of a removed entry unless another entry still points to it.
+     *
+     * @return whether the file was deleted.
+     */
+    private boolean release(Entry entry) {
+        for (Entry other : entries.values()) {
+            if (other.file.equals(entry.file)) {
+                return false;
+            }
+        }
+        deleteEntryFile(entry.file);
+        return true;
+    }
+
+    private void deleteEntryFile(File file) {
+        file.delete();
+        File parent = file.getParentFile();
+        if (parent != null && !parent.equals(dir)) {
+            parent.delete();
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        File index = new File(dir, INDEX_FILE);
+        Set<File> known = new HashSet<>();
+        if (index.exists()) {
+            try {
+                JSONArray array = new JSONArray(new String(FileHelper.readFully(index), UTF_8));
+                for (int i = 0; i < array.length(); i++) {
+                    JSONObject item = array.getJSONObject(i);
+                    File file = new File(item.getString(PATH));
+                    if (!file.exists()) {
+                        continue;
+                    }
+                    String hash = item.isNull(HASH) ? null : item.getString(HASH);
+                    entries.put(item.getString(KEY), new Entry(file, item.getLong(SIZE), hash));
+                    known.add(file);
+                }
+            } catch (IOException | JSONException e) {
+                Log.w(TAG, "dropping unreadable index", e);
+                entries.clear();
+                known.clear();
+            }
+        }
+
+        // Copies interrupted by process death are not in the index
+        File[] children = dir.listFiles();
+        if (children != null) {
+            Set<File> knownDirs = new HashSet<>();
+            for (File file : known) {
+                knownDirs.add(file.getParentFile());
+            }
+            for (File child : children) {
+                if (child.isDirectory() && !knownDirs.contains(child)) {
+                    FileHelper.deleteRecursively(child);
+                } else if (child.isDirectory()) {
+                    deleteParts(child);
+                }
+            }
+        }
+    }
+
+    private static void deleteParts(File entryDir) {
+        File[] files = entryDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(CopyEngine.PART_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void save() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                JSONObject object = new JSONObject();
+                object.put(KEY, item.getKey());
+                object.put(PATH, item.getValue().file.getAbsolutePath());
+                object.put(SIZE, item.getValue().size);
+                object.put(HASH, item.getValue().hash != null ? item.getValue().hash : JSONObject.NULL);
+                array.put(object);
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "failed to create " + dir);
+            return;
+        }
+        File index = new File(dir, INDEX_FILE);
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tmp)) {
+            output.write(array.toString().getBytes(UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write index", e);
+            return;
+        }
+        if (!tmp.renameTo(index)) {
+            Log.w(TAG, "failed to replace index");
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    static String sha1(String value) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(value.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        final File file;
+        final long size;
+        final String hash;
+
+        Entry(File file, long size, String hash) {
+            this.file = file;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package team.tada.flutter_share;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Method calls reading {@link ShareHandles}, served on the plugin channel of every engine that may
+ * get handles: the engine of the plugin and the headless engine of {@link ShareBackgroundIsolate}.
+ * Reads run on the given executor, results are posted back to the main thread.
+ */
+class ShareHandleMethods {
+
+    private static final String HANDLE = FlutterSharePlugin.HANDLE;
+    private static final String OFFSET = "offset";
+    private static final String LENGTH = "length";
+
+    private final ShareHandles handles;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    ShareHandleMethods(ShareHandles handles, ExecutorService executor) {
+        this.handles = handles;
+        this.executor = executor;
+    }
+
+    /**
+     * @return whether {@code call} is a handle method, its result is then answered.
+     */
+    boolean onMethodCall(MethodCall call, final MethodChannel.Result result) {
+        final String handle = call.argument(HANDLE);
+        switch (call.method) {
+            case "openHandle":
+                run(result, new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return handles.open(handle);
+                    }
+                });
+                return true;
+            case "getHandleSize":
+                run(result, new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return handles.size(handle);
+                    }
+                });
+                return true;
+            case "readHandle":
+                final long offset = ((Number) call.argument(OFFSET)).longValue();
+                final int length = call.argument(LENGTH);
+                run(result, new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return handles.read(handle, offset, length);
+                    }
+                });
+                return true;
+            case "closeHandle":
+                run(result, new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        handles.close(handle);
+                        return null;
+                    }
+                });
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void run(final MethodChannel.Result result, final Callable<Object> task) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Object value = null;
+                Exception error = null;
+                try {
+                    value = task.call();
+                } catch (Exception e) {
+                    error = e;
+                }
+
+                final Object reply = value;
+                final Exception failure = error;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (failure == null) {
+                            result.success(reply);
+                        } else {
+                            result.error(failure.getClass().getSimpleName(), failure.getMessage(), null);
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,219 @@
+package team.tada.flutter_share;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opaque handles for shared uris received in {@link ReceiveOptions#MODE_HANDLE} mode.
+ * <p>
+ * Nothing is copied: reads go straight to the descriptor returned by the provider. The uri
+ * permission granted with the share intent is held by the receiving activity, opening a handle
+ * keeps a descriptor so reading keeps working after that grant is gone. Handles belong to the share
+ * they were received with and are closed when that share is acknowledged, or when the plugin
+ * detaches, so handles Dart never closed do not hold descriptors for the life of the process.
+ */
+class ShareHandles {
+
+    private static final String TAG = "ShareHandles";
+
+    /**
+     * Upper bound of a single {@link #read}, the length comes from Dart.
+     */
+    static final int MAX_READ_BYTES = 1024 * 1024;
+
+    private static ShareHandles instance;
+
+    private final Context context;
+    private final Map<String, Handle> handles = new ConcurrentHashMap<>();
+
+    private ShareHandles(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Handles are shared by every engine of the process, so a background isolate can read what the
+     * UI isolate received.
+     */
+    static synchronized ShareHandles getInstance(Context context) {
+        if (instance == null) {
+            instance = new ShareHandles(context);
+        }
+        return instance;
+    }
+
+    /**
+     * @param shareId share the handle is received with, see {@link #release}.
+     */
+    String register(Uri uri, String shareId) {
+        String id = UUID.randomUUID().toString();
+        handles.put(id, new Handle(uri, shareId));
+        return id;
+    }
+
+    /**
+     * Closes the handles received with {@code shareId}.
+     */
+    void release(String shareId) {
+        if (shareId == null) {
+            return;
+        }
+        for (Map.Entry<String, Handle> item : handles.entrySet()) {
+            if (shareId.equals(item.getValue().shareId)) {
+                closeQuietly(item.getKey());
+            }
+        }
+    }
+
+    /**
+     * Closes every handle, once no engine is left to read them.
+     */
+    void releaseAll() {
+        for (String id : handles.keySet()) {
+            closeQuietly(id);
+        }
+    }
+
+    private void closeQuietly(String id) {
+        try {
+            close(id);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to close handle " + id, e);
+        }
+    }
+
+    /**
+     * @return size of the opened content in bytes, -1 if the provider serves a stream of unknown length.
+     */
+    long open(String id) throws IOException {
+        Handle handle = get(id);
+        synchronized (handle) {
+            if (handle.descriptor == null) {
+                ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(handle.uri, "r");
+                if (descriptor == null) {
+                    throw new IOException("Provider returned no descriptor for " + handle.uri);
+                }
+                handle.descriptor = descriptor;
+                handle.input = new FileInputStream(descriptor.getFileDescriptor());
+                handle.position = 0;
+            }
+            return handle.descriptor.getStatSize();
+        }
+    }
+
+    /**
+     * @return size in bytes, -1 if unknown.
+     */
+    long size(String id) {
+        Handle handle = get(id);
+        synchronized (handle) {
+            if (handle.descriptor != null && handle.descriptor.getStatSize() >= 0) {
+                return handle.descriptor.getStatSize();
+            }
+        }
+
+        Cursor cursor = context.getContentResolver().query(handle.uri, new String[]{OpenableColumns.SIZE}, null, null, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return -1;
+    }
+
+    /**
+     * Reads up to {@code length} bytes starting at {@code offset}, at most {@link #MAX_READ_BYTES}.
+     * Regular files are read at any offset, pipes and sockets can only be read forward from the
+     * current position.
+     *
+     * @return the bytes read, empty at the end of the content.
+     */
+    byte[] read(String id, long offset, int length) throws IOException {
+        if (offset < 0 || length <= 0) {
+            throw new IllegalArgumentException("Non-negative offset and positive length expected");
+        }
+
+        Handle handle = get(id);
+        synchronized (handle) {
+            if (handle.descriptor == null) {
+                open(id);
+            }
+
+            FileChannel channel = handle.input.getChannel();
+            long statSize = handle.descriptor.getStatSize();
+            boolean seekable = statSize >= 0;
+            if (!seekable && offset != handle.position) {
+                throw new IOException("Stream can only be read sequentially, next offset is " + handle.position);
+            }
+            int capped = Math.min(length, MAX_READ_BYTES);
+            if (seekable) {
+                capped = (int) Math.max(0, Math.min(capped, statSize - offset));
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(capped);
+
+            while (buffer.hasRemaining()) {
+                int read = seekable
+                        ? channel.read(buffer, offset + buffer.position())
+                        : channel.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+            }
+            handle.position = offset + buffer.position();
+
+            return buffer.position() == capped ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    void close(String id) throws IOException {
+        Handle handle = handles.remove(id);
+        if (handle == null) {
+            return;
+        }
+        synchronized (handle) {
+            if (handle.descriptor != null) {
+                handle.input.close();
+                handle.descriptor.close();
+                handle.descriptor = null;
+            }
+        }
+    }
+
+    private Handle get(String id) {
+        Handle handle = id != null ? handles.get(id) : null;
+        if (handle == null) {
+            throw new IllegalArgumentException("Unknown handle " + id);
+        }
+        return handle;
+    }
+
+    private static class Handle {
+        final Uri uri;
+        final String shareId;
+        ParcelFileDescriptor descriptor;
+        FileInputStream input;
+        long position;
+
+        Handle(Uri uri, String shareId) {
+            this.uri = uri;
+            this.shareId = shareId;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package team.tada.flutter_share;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Received shares not yet handled by Dart, persisted so that they survive process death and are
+ * not lost when they arrive before Dart called {@code configure}.
+ * <p>
+ * The journal is an append-only file of JSON lines: a share is recorded when its intent arrives,
+ * again with its params once resolved, and removed when Dart acknowledged it. Shares resolved in
+ * an earlier process are handed out again without repeating any provider I/O, shares interrupted
+ * while resolving are resolved again, and so are shares received as handles, which die with their
+ * process. Shares launched through the receiver carry the token of their intent, see
+ * {@link ShareRequest#identity()}, which is remembered for a while after the share was removed so
+ * that an intent redelivered to a recreated activity is not received twice.
+ * <p>
+ * The file is loaded on a dedicated thread as soon as the journal is created, appends run on the
+ * same thread in submission order, and callers on the main thread go through {@link #execute}. The
+ * file is rewritten without removed shares when it is loaded and after enough removals.
+ */
+class ShareJournal {
+
+    private static final String TAG = "ShareJournal";
+    private static final String FILE_NAME = "flutter_share_journal";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String ID = "id";
+    private static final String OP = "op";
+    private static final String OP_ADD = "add";
+    private static final String OP_RESOLVED = "resolved";
+    private static final String OP_REMOVE = "remove";
+    private static final String OP_HANDLED = "handled";
+    private static final String IDENTITY = "identity";
+    private static final String REQUEST = "request";
+    private static final String PARAMS = "params";
+
+    /**
+     * Removals after which the file is compacted.
+     */
+    private static final int COMPACT_THRESHOLD = 32;
+    /**
+     * Identities of removed shares kept to recognize redelivered intents.
+     */
+    private static final int HANDLED_LIMIT = 64;
+
+    private static ShareJournal instance;
+
+    private final File file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ShareResolver.WorkerThreadFactory("flutter_share-journal"));
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final LinkedHashSet<String> handled = new LinkedHashSet<>();
+    private int removed;
+    private boolean loaded;
+
+    private ShareJournal(File file) {
+        this.file = file;
+    }
+
+    static synchronized ShareJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new ShareJournal(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+            instance.preload();
+        }
+        return instance;
+    }
+
+    private void preload() {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ShareJournal.this) {
+                    load();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs {@code task} on the journal thread, once the journal is loaded and after the tasks and
+     * appends submitted before it.
+     */
+    void execute(Runnable task) {
+        writer.execute(task);
+    }
+
+    /**
+     * @return whether a share with {@code identity} is pending or was handled recently, always
+     * false for a null identity.
+     */
+    synchronized boolean contains(String identity) {
+        load();
+
+        if (identity == null) {
+            return false;
+        }
+        if (handled.contains(identity)) {
+            return true;
+        }
+        for (Entry entry : entries.values()) {
+            if (identity.equals(entry.identity)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records a share whose resolution is about to start.
+     *
+     * @param identity identity of the intent, see {@link ShareRequest#identity()}, may be null.
+     * @return id of the share, sent to Dart as {@link FlutterSharePlugin#SHARE_ID}.
+     */
+    synchronized String add(ShareRequest request, String identity) {
+        load();
+
+        String id = UUID.randomUUID().toString();
+        Entry entry = new Entry(request, identity);
+        entry.resolving = true;
+        entries.put(id, entry);
+        try {
+            append(addLine(id, entry));
+        } catch (JSONException e) {
+            Log.w(TAG, "failed to record share " + id, e);
+        }
+        return id;
+    }
+
+    /**
+     * @param durable whether {@code params} stay valid in a later process. Shares received as
+     *                handles are only kept in memory and resolved again after a restart.
+     */
+    synchronized void resolved(String id, Map<String, Object> params, boolean durable) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return;
+        }
+        entry.params = params;
+        entry.durable = durable;
+        entry.resolving = false;
+        if (!durable) {
+            return;
+        }
+        try {
+            append(resolvedLine(id, params));
+        } catch (JSONException e) {
+            Log.w(TAG, "failed to record params of " + id, e);
+        }
+    }
+
+    /**
+     * Forgets a share Dart is done with.
+     *
+     * @return whether the share was pending.
+     */
+    synchronized boolean remove(String id) {
+        load();
+
+        Entry entry = id != null ? entries.remove(id) : null;
+        if (entry == null) {
+            return false;
+        }
+        remember(entry.identity);
+        if (++removed >= COMPACT_THRESHOLD) {
+            compact();
+            return true;
+        }
+        try {
+            JSONObject line = new JSONObject();
+            line.put(ID, id);
+            line.put(OP, OP_REMOVE);
+            line.put(IDENTITY, entry.identity != null ? entry.identity : JSONObject.NULL);
+            append(line);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Marks a resolved share as handed out, so it is not returned again by {@link #take(int)}
+     * in this process.
+     *
+     * @return params of the share, null if it is not pending or not resolved.
+     */
+    synchronized Map<String, Object> take(String id) {
+        Entry entry = entries.get(id);
+        if (entry == null || entry.params == null) {
+            return null;
+        }
+        entry.taken = true;
+        return entry.params;
+    }
+
+    /**
+     * Returns a share handed out by {@link #take} but never delivered, so it is handed out again.
+     */
+    synchronized void release(String id) {
+        Entry entry = id != null ? entries.get(id) : null;
+        if (entry != null) {
+            entry.taken = false;
+        }
+    }
+
+    /**
+     * @return up to {@code limit} resolved shares not handed out in this process yet, oldest first.
+     */
+    synchronized List<Map<String, Object>> take(int limit) {
+        load();
+
+        List<Map<String, Object>> batch = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (batch.size() >= limit) {
+                break;
+            }
+            if (entry.params != null && !entry.taken) {
+                entry.taken = true;
+                batch.add(entry.params);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return shares recorded by an earlier process but never resolved, by id. They are marked
+     * as being resolved again.
+     */
+    synchronized Map<String, ShareRequest> takeUnresolved() {
+        load();
+
+        Map<String, ShareRequest> unresolved = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            Entry entry = item.getValue();
+            if (entry.params == null && !entry.resolving) {
+                entry.resolving = true;
+                unresolved.put(item.getKey(), entry.request);
+            }
+        }
+        return unresolved;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        if (!file.exists()) {
+            return;
+        }
+        String content;
+        try {
+            content = new String(FileHelper.readFully(file), UTF_8);
+        } catch (IOException e) {
+            Log.w(TAG, "dropping unreadable journal", e);
+            compact();
+            return;
+        }
+        for (String line : content.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                JSONObject object = new JSONObject(line);
+                String id = object.optString(ID);
+                String op = object.getString(OP);
+                String identity = object.isNull(IDENTITY) ? null : object.optString(IDENTITY, null);
+                if (OP_ADD.equals(op)) {
+                    entries.put(id, new Entry(ShareRequest.fromJson(object.getJSONObject(REQUEST)), identity));
+                } else if (OP_RESOLVED.equals(op) && entries.containsKey(id)) {
+                    entries.get(id).params = toMap(object.getJSONObject(PARAMS));
+                    entries.get(id).durable = true;
+                } else if (OP_REMOVE.equals(op)) {
+                    entries.remove(id);
+                    remember(identity);
+                } else if (OP_HANDLED.equals(op)) {
+                    remember(identity);
+                }
+            } catch (JSONException e) {
+                // A line torn by process death can only be the last one
+                Log.w(TAG, "skipping unreadable journal line", e);
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Replaces the file with the shares still pending and the identities of recently removed ones.
+     */
+    private void compact() {
+        removed = 0;
+        final StringBuilder content = new StringBuilder();
+        try {
+            for (String identity : handled) {
+                JSONObject line = new JSONObject();
+                line.put(OP, OP_HANDLED);
+                line.put(IDENTITY, identity);
+                content.append(line.toString()).append('\n');
+            }
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                content.append(addLine(item.getKey(), item.getValue()).toString()).append('\n');
+                if (item.getValue().params != null && item.getValue().durable) {
+                    content.append(resolvedLine(item.getKey(), item.getValue().params).toString()).append('\n');
+                }
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                File tmp = new File(file.getPath() + ".tmp");
+                try (FileOutputStream output = new FileOutputStream(tmp)) {
+                    output.write(content.toString().getBytes(UTF_8));
+                    output.getFD().sync();
+                } catch (IOException e) {
+                    Log.w(TAG, "failed to write journal", e);
+                    return;
+                }
+                if (!tmp.renameTo(file)) {
+                    Log.w(TAG, "failed to replace journal");
+                }
+            }
+        });
+    }
+
+    private void remember(String identity) {
+        if (identity == null) {
+            return;
+        }
+        handled.remove(identity);
+        handled.add(identity);
+        Iterator<String> eldest = handled.iterator();
+        while (handled.size() > HANDLED_LIMIT) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private static JSONObject addLine(String id, Entry entry) throws JSONException {
+        JSONObject line = new JSONObject();
+        line.put(ID, id);
+        line.put(OP, OP_ADD);
+        line.put(IDENTITY, entry.identity != null ? entry.identity : JSONObject.NULL);
+        line.put(REQUEST, entry.request.toJson());
+        return line;
+    }
+
+    private static JSONObject resolvedLine(String id, Map<String, Object> params) throws JSONException {
+        JSONObject line = new JSONObject();
+        line.put(ID, id);
+        line.put(OP, OP_RESOLVED);
+        line.put(PARAMS, toJson(params));
+        return line;
+    }
+
+    private void append(JSONObject line) {
+        final byte[] bytes = (line.toString() + '\n').getBytes(UTF_8);
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try (FileOutputStream output = new FileOutputStream(file, true)) {
+                    output.write(bytes);
+                    output.getFD().sync();
+                } catch (IOException e) {
+                    Log.w(TAG, "failed to append to journal", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Converts nested maps and lists explicitly, {@code JSONObject.wrap} needs API 19.
+     */
+    private static Object toJson(Object value) throws JSONException {
+        if (value instanceof Map) {
+            JSONObject object = new JSONObject();
+            for (Map.Entry<?, ?> item : ((Map<?, ?>) value).entrySet()) {
+                object.put(String.valueOf(item.getKey()), toJson(item.getValue()));
+            }
+            return object;
+        }
+        if (value instanceof List) {
+            JSONArray array = new JSONArray();
+            for (Object item : (List<?>) value) {
+                array.put(toJson(item));
+            }
+            return array;
+        }
+        return value != null ? value : JSONObject.NULL;
+    }
+
+    private static Map<String, Object> toMap(JSONObject object) throws JSONException {
+        Map<String, Object> map = new HashMap<>();
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            map.put(key, fromJson(object.get(key)));
+        }
+        return map;
+    }
+
+    private static Object fromJson(Object value) throws JSONException {
+        if (value instanceof JSONObject) {
+            return toMap((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                list.add(fromJson(array.get(i)));
+            }
+            return list;
+        }
+        return value == JSONObject.NULL ? null : value;
+    }
+
+    private static class Entry {
+        final ShareRequest request;
+        /**
+         * Null for shares recorded before identities were journaled.
+         */
+        final String identity;
+        /**
+         * Null until the share is resolved.
+         */
+        Map<String, Object> params;
+        /**
+         * Whether {@link #params} are persisted, see {@link #resolved}.
+         */
+        boolean durable;
+        /**
+         * Whether resolution is running in this process.
+         */
+        boolean resolving;
+        /**
+         * Whether the share was handed out to Dart in this process.
+         */
+        boolean taken;
+
+        Entry(ShareRequest request, String identity) {
+            this.request = request;
+            this.identity = identity;
+        }
+    }
+}
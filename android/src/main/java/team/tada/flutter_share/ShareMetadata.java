@@ -0,0 +1,192 @@
+package team.tada.flutter_share;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * What the provider reports about a shared uri, fetched with a single projected query so that
+ * every consumer reads the same snapshot instead of issuing its own binder call.
+ */
+class ShareMetadata {
+
+    private static final String TAG = "ShareMetadata";
+
+    private static final String DATA = "_data";
+
+    private static final String[] DOCUMENT_PROJECTION = {
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_SIZE,
+            DocumentsContract.Document.COLUMN_FLAGS,
+            DocumentsContract.Document.COLUMN_MIME_TYPE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+    };
+
+    private static final String[] CONTENT_PROJECTION = {
+            OpenableColumns.DISPLAY_NAME,
+            OpenableColumns.SIZE,
+            MediaStore.MediaColumns.MIME_TYPE,
+            MediaStore.MediaColumns.DATE_MODIFIED,
+            DATA,
+    };
+
+    /**
+     * Columns every provider serving openable content has to support.
+     */
+    private static final String[] OPENABLE_PROJECTION = {
+            OpenableColumns.DISPLAY_NAME,
+            OpenableColumns.SIZE,
+    };
+
+    final Uri uri;
+    final String displayName;
+    /**
+     * Size in bytes, -1 if unknown.
+     */
+    final long size;
+    /**
+     * Modification time in milliseconds, 0 if unknown.
+     */
+    final long lastModified;
+    final int flags;
+    /**
+     * Local file path reported in the legacy {@code _data} column, may be null.
+     */
+    final String data;
+
+    private String mimeType;
+    private boolean mimeTypeResolved;
+    private String sniffedMimeType;
+
+    private ShareMetadata(Uri uri, String displayName, long size, long lastModified, int flags,
+                          String mimeType, String data) {
+        this.uri = uri;
+        this.displayName = displayName;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.flags = flags;
+        this.mimeType = mimeType;
+        this.mimeTypeResolved = mimeType != null;
+        this.data = data;
+    }
+
+    static ShareMetadata query(Context context, Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+            File file = new File(uri.getPath());
+            return new ShareMetadata(uri, file.getName(), file.exists() ? file.length() : -1,
+                    file.lastModified(), 0, null, file.getAbsolutePath());
+        }
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            return new ShareMetadata(uri, null, -1, 0, 0, null, null);
+        }
+
+        boolean isDocument = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && DocumentsContract.isDocumentUri(context, uri);
+        ShareMetadata metadata = query(context, uri, isDocument ? DOCUMENT_PROJECTION : CONTENT_PROJECTION);
+        if (metadata == null && !isDocument) {
+            // Providers backed by SQLite reject columns they do not know
+            metadata = query(context, uri, OPENABLE_PROJECTION);
+        }
+        return metadata != null ? metadata : new ShareMetadata(uri, null, -1, 0, 0, null, null);
+    }
+
+    private static ShareMetadata query(Context context, Uri uri, String[] projection) {
+        try (Cursor cursor = context.getContentResolver().query(uri, projection, null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                return new ShareMetadata(uri, null, -1, 0, 0, null, null);
+            }
+
+            String displayName = getString(cursor, OpenableColumns.DISPLAY_NAME);
+            long size = getLong(cursor, OpenableColumns.SIZE, -1);
+            int flags = (int) getLong(cursor, DocumentsContract.Document.COLUMN_FLAGS, 0);
+            String mimeType = getString(cursor, DocumentsContract.Document.COLUMN_MIME_TYPE);
+            String data = getString(cursor, DATA);
+
+            long lastModified = getLong(cursor, DocumentsContract.Document.COLUMN_LAST_MODIFIED, 0);
+            if (lastModified == 0) {
+                // MediaStore reports seconds
+                lastModified = getLong(cursor, MediaStore.MediaColumns.DATE_MODIFIED, 0) * 1000;
+            }
+
+            return new ShareMetadata(uri, displayName, size, lastModified, flags, mimeType, data);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "query " + uri + " failed", e);
+            return null;
+        }
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index >= 0 && !cursor.isNull(index) ? cursor.getString(index) : null;
+    }
+
+    private static long getLong(Cursor cursor, String column, long fallback) {
+        int index = cursor.getColumnIndex(column);
+        return index >= 0 && !cursor.isNull(index) ? cursor.getLong(index) : fallback;
+    }
+
+    boolean isVirtual() {
+        if ("com.google.android.apps.docs.storage.legacy".equals(uri.getAuthority())) {
+            return true;
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && (flags & DocumentsContract.Document.FLAG_VIRTUAL_DOCUMENT) != 0;
+    }
+
+    /**
+     * @return mime type from the query, falls back to {@link MimeResolver#getReportedType} only
+     * when the provider did not report one. A missing or generic type is replaced by the sniffed
+     * one once the content was copied, or by the type registered for the name.
+     */
+    synchronized String getMimeType(Context context) {
+        if (!mimeTypeResolved) {
+            mimeTypeResolved = true;
+            if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+                mimeType = MimeResolver.getReportedType(context, uri, getName());
+            }
+        }
+        if (MimeResolver.isSpecific(mimeType)) {
+            return mimeType;
+        }
+        if (sniffedMimeType != null) {
+            return sniffedMimeType;
+        }
+        String fromName = MimeResolver.getTypeFromName(getName());
+        return fromName != null ? fromName : mimeType;
+    }
+
+    /**
+     * @return whether the provider reported a specific type, see {@link MimeResolver#isSpecific}.
+     */
+    synchronized boolean hasSpecificMimeType(Context context) {
+        getMimeType(context);
+        return MimeResolver.isSpecific(mimeType);
+    }
+
+    synchronized void setSniffedMimeType(String mimeType) {
+        this.sniffedMimeType = mimeType;
+    }
+
+    /**
+     * @return display name, or the last path segment if the provider did not report one.
+     */
+    String getName() {
+        if (displayName != null) {
+            return displayName;
+        }
+        String path = uri.getPath();
+        if (path == null) {
+            return null;
+        }
+        int cut = path.lastIndexOf('/');
+        return cut != -1 ? path.substring(cut + 1) : path;
+    }
+}
@@ -0,0 +1,236 @@
+package team.tada.flutter_share;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes resolved shares for {@code onReceive}.
+ * <p>
+ * Version 1 is the original flat {@code Map<String, String>} with items under {@code "0"},
+ * {@code "1"}, ... keys. Version 2 carries typed fields and a list of item records.
+ * Outputs of the {@link ImageProcessor} and the {@link ContentDigest} are sent for single shares in
+ * both versions and for every item of a multiple share in version 2 only, so are the segment files
+ * of {@link ReceiveOptions#MODE_SEGMENTS}.
+ */
+class SharePayload {
+
+    static final int VERSION_LEGACY = 1;
+    static final int VERSION_STRUCTURED = 2;
+
+    private SharePayload() {
+    }
+
+    static Map<String, Object> build(Context context, ShareRequest request, List<ReceivedItem> items,
+                                     ReceiveOptions options) {
+        List<String> itemTypes = new ArrayList<>(items.size());
+        for (ReceivedItem item : items) {
+            itemTypes.add(item.metadata != null ? item.metadata.getMimeType(context) : null);
+        }
+        String type = getType(request, itemTypes);
+
+        if (options.payloadVersion == VERSION_STRUCTURED) {
+            return structured(context, request, type, items, options.isHandleMode());
+        }
+        return legacy(request, type, items, options.isHandleMode());
+    }
+
+    /**
+     * @return type of the share sent to Dart. Files the sending app labeled {@code text/plain}
+     * get the type of their content instead, as Dart takes {@code text/plain} for a text share.
+     */
+    private static String getType(ShareRequest request, List<String> itemTypes) {
+        if (!"text/plain".equals(request.type) || request.isPlainText()) {
+            return request.type;
+        }
+        String common = null;
+        for (String itemType : itemTypes) {
+            if (itemType == null || (common != null && !common.equals(itemType))) {
+                return "*/*";
+            }
+            common = itemType;
+        }
+        return common != null && !"text/plain".equals(common) ? common : "*/*";
+    }
+
+    private static Map<String, Object> legacy(ShareRequest request, String type, List<ReceivedItem> items,
+                                              boolean handleMode) {
+        Map<String, Object> params = new HashMap<>();
+
+        if (request.isPlainText()) {
+            params.put(FlutterSharePlugin.TYPE, request.type);
+            params.put(FlutterSharePlugin.TEXT, request.text);
+
+            if (!TextUtils.isEmpty(request.title)) {
+                params.put(FlutterSharePlugin.TITLE, request.title);
+            }
+        } else if (request.isSingle()) {
+            ReceivedItem item = items.get(0);
+            String sharedTitle = title(request, item);
+
+            if (item.path != null) {
+                params.put(FlutterSharePlugin.TYPE, type);
+                params.put(handleMode ? FlutterSharePlugin.HANDLE : FlutterSharePlugin.PATH, item.path);
+
+                if (!TextUtils.isEmpty(sharedTitle)) {
+                    params.put(FlutterSharePlugin.TITLE, sharedTitle);
+                }
+
+                if (!request.hasText) {
+                    params.put(FlutterSharePlugin.TEXT, request.text);
+                }
+                putImage(params, item);
+                putDigest(params, item);
+                putSegments(params, item);
+            }
+        } else if (request.isMultiple()) {
+            params.put(FlutterSharePlugin.TYPE, type);
+            params.put(FlutterSharePlugin.IS_MULTIPLE, "true");
+            if (handleMode) {
+                params.put(FlutterSharePlugin.IS_HANDLE, "true");
+            }
+
+            for (ReceivedItem item : items) {
+                if (item.path != null) params.put(Integer.toString(item.index), item.path);
+            }
+        }
+
+        return params;
+    }
+
+    private static Map<String, Object> structured(Context context, ShareRequest request, String type,
+                                                  List<ReceivedItem> items, boolean handleMode) {
+        Map<String, Object> params = new HashMap<>();
+        params.put(FlutterSharePlugin.VERSION, VERSION_STRUCTURED);
+        if (request.type == null) {
+            return params;
+        }
+
+        params.put(FlutterSharePlugin.TYPE, type);
+        params.put(FlutterSharePlugin.IS_MULTIPLE, request.isMultiple());
+        if (request.hasText) {
+            params.put(FlutterSharePlugin.TEXT, request.text);
+        }
+
+        String sharedTitle = request.isSingle() && !items.isEmpty() ? title(request, items.get(0)) : request.title;
+        if (!TextUtils.isEmpty(sharedTitle)) {
+            params.put(FlutterSharePlugin.TITLE, sharedTitle);
+        }
+
+        List<Map<String, Object>> records = new ArrayList<>(items.size());
+        for (ReceivedItem item : items) {
+            if (item.path != null) {
+                records.add(record(context, item, handleMode));
+            }
+        }
+        params.put(FlutterSharePlugin.ITEMS, records);
+
+        return params;
+    }
+
+    /**
+     * First message of an early delivered share, sent before anything is copied.
+     */
+    static Map<String, Object> started(Context context, ShareRequest request, String shareId,
+                                       List<ShareMetadata> metadata) {
+        List<String> itemTypes = new ArrayList<>(metadata.size());
+        for (ShareMetadata item : metadata) {
+            itemTypes.add(item != null ? item.getMimeType(context) : null);
+        }
+
+        Map<String, Object> params = new HashMap<>();
+        params.put(FlutterSharePlugin.SHARE_ID, shareId);
+        params.put(FlutterSharePlugin.TYPE, getType(request, itemTypes));
+        params.put(FlutterSharePlugin.IS_MULTIPLE, request.isMultiple());
+        if (request.hasText) {
+            params.put(FlutterSharePlugin.TEXT, request.text);
+        }
+        if (!TextUtils.isEmpty(request.title)) {
+            params.put(FlutterSharePlugin.TITLE, request.title);
+        }
+
+        List<Map<String, Object>> records = new ArrayList<>(metadata.size());
+        for (int i = 0; i < metadata.size(); i++) {
+            ShareMetadata item = metadata.get(i);
+            Map<String, Object> record = new HashMap<>();
+            record.put(FlutterSharePlugin.INDEX, i);
+            if (item != null) {
+                record.put(FlutterSharePlugin.NAME, item.getName());
+                record.put(FlutterSharePlugin.MIME, item.getMimeType(context));
+                record.put(FlutterSharePlugin.SIZE, item.size);
+            }
+            records.add(record);
+        }
+        params.put(FlutterSharePlugin.ITEMS, records);
+        return params;
+    }
+
+    /**
+     * An item of an early delivered share, without path or handle if it could not be resolved.
+     */
+    static Map<String, Object> itemReady(Context context, String shareId, ReceivedItem item, boolean handleMode) {
+        Map<String, Object> params = record(context, item, handleMode);
+        params.put(FlutterSharePlugin.SHARE_ID, shareId);
+        return params;
+    }
+
+    private static Map<String, Object> record(Context context, ReceivedItem item, boolean handleMode) {
+        Map<String, Object> record = new HashMap<>();
+        record.put(FlutterSharePlugin.INDEX, item.index);
+        if (item.path != null) {
+            record.put(handleMode ? FlutterSharePlugin.HANDLE : FlutterSharePlugin.PATH, item.path);
+        }
+        if (item.metadata != null) {
+            record.put(FlutterSharePlugin.NAME, item.metadata.getName());
+            record.put(FlutterSharePlugin.MIME, item.metadata.getMimeType(context));
+        }
+        long size = handleMode || item.path == null || item.segments != null ? -1 : new File(item.path).length();
+        if (size < 0 && item.metadata != null) {
+            size = item.metadata.size;
+        }
+        record.put(FlutterSharePlugin.SIZE, size);
+        putImage(record, item);
+        putDigest(record, item);
+        putSegments(record, item);
+        return record;
+    }
+
+    private static void putImage(Map<String, Object> params, ReceivedItem item) {
+        if (item.image == null) {
+            return;
+        }
+        if (item.image.scaledPath != null) {
+            params.put(FlutterSharePlugin.SCALED_PATH, item.image.scaledPath);
+        }
+        if (item.image.thumbnailPath != null) {
+            params.put(FlutterSharePlugin.THUMBNAIL_PATH, item.image.thumbnailPath);
+        }
+    }
+
+    private static void putDigest(Map<String, Object> params, ReceivedItem item) {
+        if (item.digest != null) {
+            params.put(FlutterSharePlugin.DIGEST, item.digest);
+        }
+    }
+
+    private static void putSegments(Map<String, Object> params, ReceivedItem item) {
+        if (item.segments != null) {
+            params.put(FlutterSharePlugin.SEGMENTS, item.segments);
+        }
+    }
+
+    /**
+     * Subject of the share, or the display name of a virtual document shared without one.
+     */
+    private static String title(ShareRequest request, ReceivedItem item) {
+        if (TextUtils.isEmpty(request.title) && item.metadata != null && item.metadata.isVirtual()) {
+            return item.metadata.getName();
+        }
+        return request.title;
+    }
+}
@@ -0,0 +1,134 @@
+package team.tada.flutter_share;
+
+import android.content.Intent;
+import android.net.Uri;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything that can be read from a share intent without touching a content provider.
+ * Parsing is cheap and happens on the main thread, resolution of {@link #uris} is left
+ * to {@link ShareResolver}.
+ */
+class ShareRequest {
+
+    /**
+     * Token unique to one share, stamped on the forwarded intent by
+     * {@link FlutterShareActivityReceiver}.
+     */
+    static final String EXTRA_TOKEN = "team.tada.flutter_share.TOKEN";
+
+    private static final String ACTION = "action";
+    private static final String TYPE = "type";
+    private static final String TITLE = "title";
+    private static final String TEXT = "text";
+    private static final String HAS_TEXT = "has_text";
+    private static final String URIS = "uris";
+
+    final String action;
+    final String type;
+    final String title;
+    final String text;
+    final boolean hasText;
+    final List<Uri> uris;
+    /**
+     * Null if the intent did not pass {@link FlutterShareActivityReceiver}, or once restored
+     * from JSON.
+     */
+    final String token;
+
+    private ShareRequest(String action, String type, String title, String text, boolean hasText, List<Uri> uris,
+                         String token) {
+        this.action = action;
+        this.type = type;
+        this.title = title;
+        this.text = text;
+        this.hasText = hasText;
+        this.uris = uris;
+        this.token = token;
+    }
+
+    static ShareRequest fromIntent(Intent intent) {
+        String action = intent.getAction();
+        String type = intent.getType();
+        String title = intent.getStringExtra(Intent.EXTRA_SUBJECT);
+        String text = intent.getStringExtra(Intent.EXTRA_TEXT);
+        boolean hasText = intent.hasExtra(Intent.EXTRA_TEXT);
+
+        List<Uri> uris = Collections.emptyList();
+        if (Intent.ACTION_SEND.equals(action) && type != null) {
+            Uri sharedUri = intent.getParcelableExtra(Intent.EXTRA_STREAM);
+
+            // Some apps label files text/plain, the type sent to Dart is taken from the content then
+            if (sharedUri != null || !"text/plain".equals(type)) {
+                uris = Collections.singletonList(sharedUri);
+            }
+        } else if (Intent.ACTION_SEND_MULTIPLE.equals(action) && type != null) {
+            ArrayList<Uri> sharedUris = intent.getParcelableArrayListExtra(Intent.EXTRA_STREAM);
+            if (sharedUris != null) {
+                uris = sharedUris;
+            }
+        }
+
+        return new ShareRequest(action, type, title, text, hasText, uris, intent.getStringExtra(EXTRA_TOKEN));
+    }
+
+    /**
+     * Restores a request persisted with {@link #toJson}, see {@link ShareJournal}.
+     */
+    static ShareRequest fromJson(JSONObject object) throws JSONException {
+        JSONArray array = object.getJSONArray(URIS);
+        List<Uri> uris = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            uris.add(array.isNull(i) ? null : Uri.parse(array.getString(i)));
+        }
+        return new ShareRequest(getString(object, ACTION), getString(object, TYPE), getString(object, TITLE),
+                getString(object, TEXT), object.getBoolean(HAS_TEXT), uris, null);
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Uri uri : uris) {
+            array.put(uri != null ? uri.toString() : JSONObject.NULL);
+        }
+        JSONObject object = new JSONObject();
+        object.put(ACTION, action != null ? action : JSONObject.NULL);
+        object.put(TYPE, type != null ? type : JSONObject.NULL);
+        object.put(TITLE, title != null ? title : JSONObject.NULL);
+        object.put(TEXT, text != null ? text : JSONObject.NULL);
+        object.put(HAS_TEXT, hasText);
+        object.put(URIS, array);
+        return object;
+    }
+
+    private static String getString(JSONObject object, String key) throws JSONException {
+        return object.isNull(key) ? null : object.getString(key);
+    }
+
+    /**
+     * @return key of the intent this request was parsed from, the same when a recreated activity
+     * gets its intent back after process death. Null without a {@link #token}: two shares with the
+     * same content are still two shares.
+     */
+    String identity() {
+        return token;
+    }
+
+    boolean isSingle() {
+        return Intent.ACTION_SEND.equals(action) && type != null;
+    }
+
+    boolean isMultiple() {
+        return Intent.ACTION_SEND_MULTIPLE.equals(action) && type != null;
+    }
+
+    boolean isPlainText() {
+        return isSingle() && "text/plain".equals(type) && uris.isEmpty();
+    }
+}
@@ -0,0 +1,459 @@
+package team.tada.flutter_share;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns a parsed {@link ShareRequest} into the params map expected by Dart, see {@link SharePayload}.
+ * <p>
+ * Cursor queries and file copies run on a dedicated worker, requests are resolved in the order
+ * they were submitted and the result is posted back to the main looper. Items of a multiple share
+ * may additionally be spread over a bounded pool, see {@link ReceiveOptions#concurrency}.
+ */
+class ShareResolver {
+
+    interface Callback {
+        /**
+         * Only called with {@link ReceiveOptions#earlyDelivery}, before any item is resolved.
+         */
+        void onStarted(Map<String, Object> params);
+
+        /**
+         * Only called with {@link ReceiveOptions#earlyDelivery}, as soon as an item is resolved.
+         */
+        void onItemReady(Map<String, Object> params);
+
+        /**
+         * @param durable false if {@code params} carry handles, which die with the process.
+         */
+        void onResolved(Map<String, Object> params, boolean durable);
+    }
+
+    private static final String TAG = "ShareResolver";
+
+    private final Context context;
+    private final ShareHandles handles;
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor itemExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final Map<String, ShareTransfer> transfers = new ConcurrentHashMap<>();
+    private final ShareTransfer.Listener transferListener;
+
+    private volatile ReceiveOptions options = ReceiveOptions.DEFAULT;
+    private volatile ShareCache cache;
+    private final ShareStats stats = ShareStats.getInstance();
+
+    ShareResolver(Context context, ShareHandles handles, ShareTransfer.Listener transferListener) {
+        this.context = context.getApplicationContext();
+        this.handles = handles;
+        this.transferListener = transferListener;
+        this.cache = ShareCache.forDirectory(StorageTarget.getDirectory(this.context, options), options.cacheMaxBytes);
+        this.executor = Executors.newSingleThreadExecutor(new WorkerThreadFactory("flutter_share-resolver"));
+        this.itemExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory("flutter_share-item"));
+        this.itemExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    synchronized void setOptions(ReceiveOptions options) {
+        int concurrency = options.concurrency;
+        if (concurrency > itemExecutor.getMaximumPoolSize()) {
+            itemExecutor.setMaximumPoolSize(concurrency);
+            itemExecutor.setCorePoolSize(concurrency);
+        } else {
+            itemExecutor.setCorePoolSize(concurrency);
+            itemExecutor.setMaximumPoolSize(concurrency);
+        }
+        this.options = options;
+        // Copies already handed out stay where they are, new ones go to the new target
+        ShareCache cache = ShareCache.forDirectory(StorageTarget.getDirectory(context, options), options.cacheMaxBytes);
+        cache.setMaxBytes(options.cacheMaxBytes);
+        this.cache = cache;
+    }
+
+    /**
+     * Stops the worker threads once the shares already submitted are resolved.
+     */
+    void shutdown() {
+        // Queued shares still submit their items, stop the item pool after them
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                itemExecutor.shutdown();
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Cancels an in-flight copy, or all of them if {@code id} is null.
+     *
+     * @return whether a matching transfer was found.
+     */
+    boolean cancel(String id) {
+        if (id == null) {
+            for (ShareTransfer transfer : transfers.values()) {
+                transfer.cancel();
+            }
+            return !transfers.isEmpty();
+        }
+
+        ShareTransfer transfer = transfers.get(id);
+        if (transfer == null) {
+            return false;
+        }
+        transfer.cancel();
+        return true;
+    }
+
+    /**
+     * @return number of shared items submitted but not resolved yet.
+     */
+    int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @param shareId sent to Dart as {@link FlutterSharePlugin#SHARE_ID}, see {@link ShareJournal}.
+     */
+    void resolve(final ShareRequest request, final String shareId, final Callback callback) {
+        queueDepth.addAndGet(request.uris.size());
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = stats.begin(ShareStats.STAGE_SHARE);
+                final boolean durable = request.isPlainText() || !options.isHandleMode();
+                final Map<String, Object> params;
+                try {
+                    params = buildParams(request, shareId, callback);
+                } finally {
+                    ShareCache.unpin(shareId);
+                    stats.end(ShareStats.STAGE_SHARE, start);
+                }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResolved(params, durable);
+                    }
+                });
+            }
+        });
+    }
+
+    private Map<String, Object> buildParams(ShareRequest request, String shareId, Callback callback) {
+        Delivery delivery = null;
+        if (options.earlyDelivery && !request.isPlainText() && !request.uris.isEmpty()) {
+            delivery = new Delivery(request, shareId, callback);
+        }
+
+        List<ReceivedItem> items = request.isPlainText()
+                ? new ArrayList<ReceivedItem>()
+                : resolveItems(request.uris, shareId, delivery);
+        Map<String, Object> params = SharePayload.build(context, request, items, options);
+        params.put(FlutterSharePlugin.SHARE_ID, shareId);
+        return params;
+    }
+
+    /**
+     * Resolves a batch, keeping the result at the index of its uri.
+     */
+    private List<ReceivedItem> resolveItems(List<Uri> uris, final String shareId, final Delivery delivery) {
+        List<ReceivedItem> items = new ArrayList<>(uris.size());
+        if (options.concurrency == 1 || uris.size() < 2) {
+            for (int i = 0; i < uris.size(); i++) {
+                items.add(resolveItem(i, uris.get(i), shareId, delivery));
+            }
+            return items;
+        }
+
+        List<Future<ReceivedItem>> futures = new ArrayList<>(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            final int index = i;
+            final Uri uri = uris.get(i);
+            futures.add(itemExecutor.submit(new Callable<ReceivedItem>() {
+                @Override
+                public ReceivedItem call() {
+                    return resolveItem(index, uri, shareId, delivery);
+                }
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                items.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                items.add(new ReceivedItem(i, uris.get(i), null, null));
+            } catch (ExecutionException e) {
+                items.add(new ReceivedItem(i, uris.get(i), null, null));
+            }
+        }
+        return items;
+    }
+
+    private ReceivedItem resolveItem(int index, Uri uri, String shareId, Delivery delivery) {
+        ReceivedItem item = resolveItem(index, uri, shareId, delivery != null ? delivery.metadata.get(index) : null);
+        if (delivery != null) {
+            delivery.onItemReady(item);
+        }
+        return item;
+    }
+
+    /**
+     * @param metadata queried up front for early delivery, null to query it here.
+     */
+    private ReceivedItem resolveItem(int index, Uri uri, String shareId, ShareMetadata metadata) {
+        long start = stats.begin(ShareStats.STAGE_ITEM);
+        ShareTransfer transfer = null;
+        try {
+            stats.onItem();
+            if (uri == null) {
+                stats.onError();
+                return new ReceivedItem(index, null, null, null);
+            }
+            if (metadata == null) {
+                metadata = queryMetadata(uri);
+            }
+            if (options.isHandleMode()) {
+                return new ReceivedItem(index, uri, metadata, handles.register(uri, shareId));
+            }
+
+            transfer = new ShareTransfer(index, uri, transferListener);
+            transfers.put(transfer.id, transfer);
+            transfer.start();
+            if (options.isSegmentsMode()) {
+                return resolveSegments(index, uri, metadata, transfer);
+            }
+
+            String path;
+            ShareCache cache = this.cache;
+            long pathStart = stats.begin(ShareStats.STAGE_PATH);
+            try {
+                path = FileHelper.getPath(context, uri, metadata, cache, options.digestAlgorithm, transfer);
+                if (path != null) {
+                    // Later items of this share must not evict the copy before it is delivered
+                    cache.pin(shareId, new File(path));
+                }
+            } finally {
+                stats.end(ShareStats.STAGE_PATH, pathStart);
+            }
+            if (transfer.isCancelled()) {
+                stats.onCancelled();
+                transfer.finish(ShareTransfer.STATE_CANCELLED);
+                path = null;
+            } else if (path == null) {
+                stats.onError();
+                transfer.finish(ShareTransfer.STATE_FAILED);
+            } else {
+                transfer.complete(new File(path).length());
+            }
+            return new ReceivedItem(index, uri, metadata, path, processImage(cache, path, metadata, shareId),
+                    digest(path));
+        } catch (Exception e) {
+            Log.e(TAG, "failed to resolve " + uri, e);
+            stats.onError();
+            if (transfer != null) {
+                transfer.finish(ShareTransfer.STATE_FAILED);
+            }
+            return new ReceivedItem(index, uri, metadata, null);
+        } finally {
+            if (transfer != null) {
+                transfers.remove(transfer.id);
+            }
+            int depth = queueDepth.decrementAndGet();
+            stats.end(ShareStats.STAGE_ITEM, start);
+            stats.log(TAG, "resolved " + uri + ", queue depth " + depth);
+        }
+    }
+
+    private ShareMetadata queryMetadata(Uri uri) {
+        long start = stats.begin(ShareStats.STAGE_METADATA);
+        try {
+            return ShareMetadata.query(context, uri);
+        } finally {
+            stats.end(ShareStats.STAGE_METADATA, start);
+        }
+    }
+
+    /**
+     * Writes an item out as segment files, see {@link ReceiveOptions#MODE_SEGMENTS}. Segments are
+     * never cached, Dart owns the directory and deletes it once done.
+     */
+    private ReceivedItem resolveSegments(int index, Uri uri, ShareMetadata metadata, ShareTransfer transfer) {
+        ReceiveOptions options = this.options;
+        File dir = new File(StorageTarget.getSegmentsDirectory(context, options), transfer.id);
+        ContentDigest digest = options.digestAlgorithm != null ? ContentDigest.create(options.digestAlgorithm) : null;
+        CopyEngine.Result result;
+        long start = stats.begin(ShareStats.STAGE_COPY);
+        try {
+            transfer.attach();
+            String exportType = metadata.isVirtual()
+                    ? CopyEngine.getExportType(context.getContentResolver(), uri) : null;
+            if (exportType == null) {
+                transfer.setTotalIfUnknown(metadata.size);
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Can not create " + dir);
+            }
+            StorageTarget.ensureSpace(context, dir, exportType == null ? metadata.size : -1);
+            result = CopyEngine.copySegments(context.getContentResolver(), uri, exportType, dir,
+                    options.segmentBytes, digest, digest != null, transfer);
+            stats.onCopied(result.bytes);
+        } catch (IOException | RuntimeException e) {
+            FileHelper.deleteRecursively(dir);
+            if (transfer.isCancelled()) {
+                stats.onCancelled();
+                transfer.finish(ShareTransfer.STATE_CANCELLED);
+            } else {
+                Log.e(TAG, "failed to write segments of " + uri, e);
+                stats.onError();
+                transfer.finish(ShareTransfer.STATE_FAILED);
+            }
+            return new ReceivedItem(index, uri, metadata, null);
+        } finally {
+            transfer.detach();
+            stats.end(ShareStats.STAGE_COPY, start);
+        }
+        transfer.complete(result.bytes);
+
+        List<String> segments = new ArrayList<>();
+        String[] names = dir.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                if (!name.startsWith(".")) {
+                    segments.add(new File(dir, name).getAbsolutePath());
+                }
+            }
+        }
+        String hex = result.digest != null ? ShareCache.toHex(result.digest) : null;
+        return new ReceivedItem(index, uri, metadata, dir.getAbsolutePath(), null, hex, segments);
+    }
+
+    /**
+     * @return digest of a received file, remembered from its copy or read from disk.
+     */
+    private String digest(String path) {
+        String algorithm = options.digestAlgorithm;
+        if (path == null || algorithm == null) {
+            return null;
+        }
+        try {
+            return ContentDigest.of(new File(path), algorithm);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to digest " + path, e);
+            stats.onError();
+            return null;
+        }
+    }
+
+    private ImageProcessor.Result processImage(ShareCache cache, String path, ShareMetadata metadata, String shareId) {
+        ReceiveOptions options = this.options;
+        if (path == null || !ImageProcessor.isEnabled(options)) {
+            return null;
+        }
+        String mimeType = metadata.getMimeType(context);
+        File file = new File(path);
+        if (mimeType == null || !mimeType.startsWith("image/") || !file.isFile()) {
+            return null;
+        }
+
+        long start = stats.begin(ShareStats.STAGE_IMAGE);
+        try {
+            return new ImageProcessor(cache, options, shareId).process(file);
+        } catch (IOException | RuntimeException e) {
+            // The original is still delivered
+            Log.w(TAG, "failed to process image " + path, e);
+            stats.onError();
+            return null;
+        } finally {
+            stats.end(ShareStats.STAGE_IMAGE, start);
+        }
+    }
+
+    /**
+     * Reports a share to Dart while it is being resolved: its items with their metadata first,
+     * then every item as soon as it is ready, in completion order.
+     */
+    private class Delivery {
+
+        final String shareId;
+        final List<ShareMetadata> metadata;
+        private final Callback callback;
+        private final boolean handleMode;
+
+        Delivery(ShareRequest request, String shareId, Callback callback) {
+            this.shareId = shareId;
+            this.callback = callback;
+            this.handleMode = options.isHandleMode();
+
+            // One query per item, far cheaper than the copies that follow
+            metadata = new ArrayList<>(request.uris.size());
+            for (Uri uri : request.uris) {
+                metadata.add(uri != null ? queryMetadata(uri) : null);
+            }
+
+            final Map<String, Object> params = SharePayload.started(context, request, shareId, metadata);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Delivery.this.callback.onStarted(params);
+                }
+            });
+        }
+
+        void onItemReady(ReceivedItem item) {
+            final Map<String, Object> params = SharePayload.itemReady(context, shareId, item, handleMode);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onItemReady(params);
+                }
+            });
+        }
+    }
+
+    static class WorkerThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, name + "-" + count.incrementAndGet());
+        }
+    }
+}
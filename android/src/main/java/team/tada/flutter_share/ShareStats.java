@@ -0,0 +1,167 @@
+package team.tada.flutter_share;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters and per-stage timings of the receive path, shared by every engine of the process.
+ * <p>
+ * Every stage is also a {@link Trace} section named {@code flutter_share:<stage>}, so it shows up
+ * in systrace and Perfetto captures. A snapshot is returned to Dart by the {@code getStats} call.
+ */
+class ShareStats {
+
+    /**
+     * Provider query of name, size, flags and type.
+     */
+    static final String STAGE_METADATA = "metadata";
+    /**
+     * {@link android.content.ContentResolver#getType} for providers not reporting a type, misses of
+     * the {@link MimeResolver} memo only.
+     */
+    static final String STAGE_MIME = "mime";
+    /**
+     * Turning a uri into a local path, includes {@link #STAGE_COPY} when the content is copied.
+     */
+    static final String STAGE_PATH = "path";
+    static final String STAGE_COPY = "copy";
+    static final String STAGE_IMAGE = "image";
+    /**
+     * Reading a file again for {@link ContentDigest}, digests of copies are part of {@link #STAGE_COPY}.
+     */
+    static final String STAGE_DIGEST = "digest";
+    /**
+     * A single item from start to end.
+     */
+    static final String STAGE_ITEM = "item";
+    /**
+     * A whole share including its payload, from the intent to the result posted to Dart.
+     */
+    static final String STAGE_SHARE = "share";
+
+    private static final String TRACE_PREFIX = "flutter_share:";
+
+    private static final ShareStats instance = new ShareStats();
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private long items;
+    private long bytesCopied;
+    private long cacheHits;
+    private long cacheMisses;
+    private long errors;
+    private long cancelled;
+
+    private volatile boolean verbose;
+
+    static ShareStats getInstance() {
+        return instance;
+    }
+
+    /**
+     * Verbose logging of every share and item, off by default.
+     */
+    void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    void log(String tag, String message) {
+        if (verbose) {
+            Log.i(tag, message);
+        }
+    }
+
+    /**
+     * Starts timing {@code stage} on the current thread, pass the result to {@link #end}.
+     */
+    long begin(String stage) {
+        Trace.beginSection(TRACE_PREFIX + stage);
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    void end(String stage, long start) {
+        long duration = SystemClock.elapsedRealtimeNanos() - start;
+        Trace.endSection();
+
+        synchronized (this) {
+            Stage entry = stages.get(stage);
+            if (entry == null) {
+                entry = new Stage();
+                stages.put(stage, entry);
+            }
+            entry.count++;
+            entry.totalNanos += duration;
+            entry.maxNanos = Math.max(entry.maxNanos, duration);
+        }
+    }
+
+    synchronized void onItem() {
+        items++;
+    }
+
+    synchronized void onCopied(long bytes) {
+        bytesCopied += bytes;
+    }
+
+    synchronized void onCacheLookup(boolean hit) {
+        if (hit) {
+            cacheHits++;
+        } else {
+            cacheMisses++;
+        }
+    }
+
+    synchronized void onError() {
+        errors++;
+    }
+
+    synchronized void onCancelled() {
+        cancelled++;
+    }
+
+    synchronized Map<String, Object> snapshot(int queueDepth) {
+        Map<String, Object> stageMap = new HashMap<>();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            Stage stage = entry.getValue();
+            Map<String, Object> values = new HashMap<>();
+            values.put("count", stage.count);
+            values.put("total_ms", stage.totalNanos / 1e6);
+            values.put("max_ms", stage.maxNanos / 1e6);
+            stageMap.put(entry.getKey(), values);
+        }
+
+        Stage copy = stages.get(STAGE_COPY);
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("stages", stageMap);
+        snapshot.put("items", items);
+        snapshot.put("bytes_copied", bytesCopied);
+        snapshot.put("copy_bytes_per_second", copy != null && copy.totalNanos > 0
+                ? bytesCopied * 1e9 / copy.totalNanos : 0.0);
+        snapshot.put("cache_hits", cacheHits);
+        snapshot.put("cache_misses", cacheMisses);
+        snapshot.put("errors", errors);
+        snapshot.put("cancelled", cancelled);
+        snapshot.put("queue_depth", queueDepth);
+        return snapshot;
+    }
+
+    synchronized void reset() {
+        stages.clear();
+        items = 0;
+        bytesCopied = 0;
+        cacheHits = 0;
+        cacheMisses = 0;
+        errors = 0;
+        cancelled = 0;
+    }
+
+    private static class Stage {
+        long count;
+        long totalNanos;
+        long maxNanos;
+    }
+}
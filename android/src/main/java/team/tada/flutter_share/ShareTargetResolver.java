@@ -0,0 +1,68 @@
+package team.tada.flutter_share;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Apps able to receive an {@code ACTION_SEND} of a given mime type.
+ * <p>
+ * Querying the package manager is a binder call that gets slower with every installed app, so the
+ * result is kept per mime type until a package is added, removed or changed. The instance, and its
+ * package receiver, is only created by the first share granting every target.
+ */
+class ShareTargetResolver {
+
+    private static ShareTargetResolver instance;
+
+    private final Context context;
+    private final Map<String, List<ResolveInfo>> targets = new HashMap<>();
+
+    private ShareTargetResolver(Context context) {
+        this.context = context.getApplicationContext();
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        this.context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, filter);
+    }
+
+    static synchronized ShareTargetResolver getInstance(Context context) {
+        if (instance == null) {
+            instance = new ShareTargetResolver(context);
+        }
+        return instance;
+    }
+
+    synchronized List<ResolveInfo> query(String mimeType) {
+        List<ResolveInfo> result = targets.get(mimeType);
+        if (result == null) {
+            Intent intent = new Intent(Intent.ACTION_SEND);
+            intent.setType(mimeType);
+            result = Collections.unmodifiableList(
+                    context.getPackageManager().queryIntentActivities(intent, PackageManager.MATCH_DEFAULT_ONLY));
+            targets.put(mimeType, result);
+        }
+        return result;
+    }
+
+    synchronized void invalidate() {
+        targets.clear();
+    }
+}
@@ -0,0 +1,126 @@
+package team.tada.flutter_share;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.UUID;
+
+/**
+ * A single received item being copied. Reports throttled progress and can be cancelled from any
+ * thread, which interrupts the copying thread so blocked channel I/O is aborted right away.
+ */
+class ShareTransfer {
+
+    interface Listener {
+        void onTransferEvent(ShareTransfer transfer, String state, long bytes, long total);
+
+        /**
+         * A segment of {@link ReceiveOptions#MODE_SEGMENTS} was written, never throttled.
+         */
+        void onSegmentEvent(ShareTransfer transfer, int segment, File file, long offset, long length, long total);
+    }
+
+    static final String STATE_PROGRESS = "progress";
+    static final String STATE_DONE = "done";
+    static final String STATE_CANCELLED = "cancelled";
+    static final String STATE_FAILED = "failed";
+    static final String STATE_SEGMENT = "segment";
+
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    final String id = UUID.randomUUID().toString();
+    final int index;
+    final Uri uri;
+
+    private final Listener listener;
+    private volatile boolean cancelled;
+    private Thread worker;
+    private long lastReport;
+    private long bytes;
+    private long total = -1;
+
+    ShareTransfer(int index, Uri uri, Listener listener) {
+        this.index = index;
+        this.uri = uri;
+        this.listener = listener;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    synchronized void cancel() {
+        cancelled = true;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Binds the transfer to the current thread for the duration of the copy.
+     */
+    synchronized void attach() throws InterruptedIOException {
+        worker = Thread.currentThread();
+        checkCancelled();
+    }
+
+    synchronized void detach() {
+        worker = null;
+        // Do not leak a cancel into the next task of a pooled thread
+        Thread.interrupted();
+    }
+
+    void checkCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Transfer " + id + " cancelled");
+        }
+    }
+
+    /**
+     * @param total total size in bytes, -1 if unknown.
+     */
+    void onProgress(long bytes, long total) throws InterruptedIOException {
+        checkCancelled();
+
+        this.bytes = bytes;
+        if (total >= 0) {
+            this.total = total;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastReport >= PROGRESS_INTERVAL_MS) {
+            lastReport = now;
+            listener.onTransferEvent(this, STATE_PROGRESS, bytes, this.total);
+        }
+    }
+
+    void onSegment(int segment, File file, long offset, long length) {
+        listener.onSegmentEvent(this, segment, file, offset, length, total);
+    }
+
+    /**
+     * Sets the total reported by the provider when the source itself can not tell its length.
+     */
+    void setTotalIfUnknown(long total) {
+        if (this.total < 0) {
+            this.total = total;
+        }
+    }
+
+    void start() {
+        lastReport = SystemClock.elapsedRealtime();
+        listener.onTransferEvent(this, STATE_PROGRESS, 0, total);
+    }
+
+    void complete(long size) {
+        bytes = size;
+        total = size;
+        finish(STATE_DONE);
+    }
+
+    void finish(String state) {
+        listener.onTransferEvent(this, state, bytes, total);
+    }
+}
@@ -0,0 +1,132 @@
+package team.tada.flutter_share;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.storage.StorageManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import androidx.core.content.ContextCompat;
+
+/**
+ * Where copies of received files are stored, see {@link ReceiveOptions#storageTarget}.
+ */
+class StorageTarget {
+
+    private static final String TAG = "StorageTarget";
+
+    /**
+     * Backed up internal storage, the original location.
+     */
+    static final String FILES = "files";
+    /**
+     * Internal storage the system may clear when space runs low.
+     */
+    static final String CACHE = "cache";
+    /**
+     * Internal storage excluded from backups.
+     */
+    static final String NO_BACKUP = "no_backup";
+    /**
+     * App-specific external storage, falls back to {@link #FILES} while it is not mounted.
+     */
+    static final String EXTERNAL = "external";
+    /**
+     * Directory passed in {@link ReceiveOptions#storageDirectory}. Copies go into a subdirectory
+     * owned by the plugin, as {@link ShareCache} deletes anything in it that it does not know.
+     */
+    static final String CUSTOM = "custom";
+
+    private static final String DIRECTORY_NAME = "flutter_share";
+    private static final String SEGMENTS_DIRECTORY_NAME = "flutter_share_segments";
+
+    /**
+     * Copies smaller than this are not worth a free space query.
+     */
+    private static final long CHECK_THRESHOLD_BYTES = 8L * 1024 * 1024;
+
+    private StorageTarget() {
+    }
+
+    static boolean isValid(String target) {
+        return FILES.equals(target) || CACHE.equals(target) || NO_BACKUP.equals(target)
+                || EXTERNAL.equals(target) || CUSTOM.equals(target);
+    }
+
+    static File getDirectory(Context context, ReceiveOptions options) {
+        return getDirectory(context, options, DIRECTORY_NAME);
+    }
+
+    /**
+     * @return directory segments of {@link ReceiveOptions#MODE_SEGMENTS} are written to, next to
+     * and not managed by the {@link ShareCache}.
+     */
+    static File getSegmentsDirectory(Context context, ReceiveOptions options) {
+        return getDirectory(context, options, SEGMENTS_DIRECTORY_NAME);
+    }
+
+    private static File getDirectory(Context context, ReceiveOptions options, String name) {
+        switch (options.storageTarget) {
+            case CACHE:
+                return new File(context.getCacheDir(), name);
+            case NO_BACKUP:
+                return new File(ContextCompat.getNoBackupFilesDir(context), name);
+            case EXTERNAL:
+                File external = context.getExternalFilesDir(null);
+                if (external != null) {
+                    return new File(external, name);
+                }
+                Log.w(TAG, "external storage unavailable, using internal storage");
+                break;
+            case CUSTOM:
+                return new File(options.storageDirectory, name);
+        }
+        return new File(context.getFilesDir(), name);
+    }
+
+    /**
+     * Makes sure {@code bytes} can be written to {@code dir} before a copy starts, so that a full
+     * disk fails right away instead of after a partial write. On API 26+ the system is asked to
+     * free cached data of other apps if that makes the copy fit.
+     *
+     * @param bytes size of the copy, -1 if unknown.
+     * @throws IOException if there is not enough space.
+     */
+    static void ensureSpace(Context context, File dir, long bytes) throws IOException {
+        if (bytes < CHECK_THRESHOLD_BYTES) {
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            StorageManager storageManager = context.getSystemService(StorageManager.class);
+            UUID uuid = null;
+            try {
+                uuid = storageManager.getUuidForPath(dir);
+            } catch (IOException e) {
+                // Not on a volume managed by the system, use the plain check
+            }
+            if (uuid != null) {
+                allocate(storageManager, uuid, bytes);
+                return;
+            }
+        }
+
+        long usable = dir.getUsableSpace();
+        if (usable < bytes) {
+            throw new IOException("Not enough space in " + dir + ": " + bytes + " bytes needed, " + usable + " usable");
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private static void allocate(StorageManager storageManager, UUID uuid, long bytes) throws IOException {
+        long allocatable = storageManager.getAllocatableBytes(uuid);
+        if (allocatable < bytes) {
+            throw new IOException("Not enough space on " + uuid + ": " + bytes + " bytes needed, " + allocatable + " allocatable");
+        }
+        storageManager.allocateBytes(uuid, bytes);
+    }
+}
@@ -0,0 +1,120 @@
+package team.tada.flutter_share;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentDigestTest {
+
+    private static final byte[] CHECK = "123456789".getBytes(Charset.forName("US-ASCII"));
+
+    @Test
+    public void tableCrc32cMatchesCheckValue() {
+        ContentDigest.Crc32c crc = new ContentDigest.Crc32c();
+        crc.update(CHECK, 0, CHECK.length);
+        assertEquals(0xE3069283L, crc.getValue());
+    }
+
+    @Test
+    public void tableCrc32cOfNothingIsZero() {
+        assertEquals(0L, new ContentDigest.Crc32c().getValue());
+    }
+
+    @Test
+    public void tableCrc32cIsIndependentOfChunking() {
+        byte[] data = random(100_003);
+        ContentDigest.Crc32c whole = new ContentDigest.Crc32c();
+        whole.update(data, 0, data.length);
+
+        ContentDigest.Crc32c chunked = new ContentDigest.Crc32c();
+        int offset = 0;
+        for (int size = 1; offset < data.length; size = size * 3 + 1) {
+            int length = Math.min(size, data.length - offset);
+            chunked.update(data, offset, length);
+            offset += length;
+        }
+        assertEquals(whole.getValue(), chunked.getValue());
+
+        ContentDigest.Crc32c bytewise = new ContentDigest.Crc32c();
+        for (byte b : data) {
+            bytewise.update(b);
+        }
+        assertEquals(whole.getValue(), bytewise.getValue());
+    }
+
+    @Test
+    public void tableCrc32cResets() {
+        ContentDigest.Crc32c crc = new ContentDigest.Crc32c();
+        crc.update(random(64), 0, 64);
+        crc.reset();
+        crc.update(CHECK, 0, CHECK.length);
+        assertEquals(0xE3069283L, crc.getValue());
+    }
+
+    @Test
+    public void checksumsFinishBigEndian() {
+        assertEquals("e3069283", hex(ContentDigest.CRC32C, ByteBuffer.wrap(CHECK)));
+        assertEquals("cbf43926", hex(ContentDigest.CRC32, ByteBuffer.wrap(CHECK)));
+    }
+
+    @Test
+    public void directBuffersDigestLikeArrays() {
+        byte[] data = random(200_000);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.flip();
+
+        for (String algorithm : new String[]{ContentDigest.CRC32C, ContentDigest.CRC32, ContentDigest.SHA_256}) {
+            ContentDigest digest = ContentDigest.create(algorithm);
+            digest.update(direct.duplicate());
+            assertArrayEquals(algorithm, finish(algorithm, ByteBuffer.wrap(data)), digest.finish());
+        }
+    }
+
+    @Test
+    public void messageDigestsMatchKnownValues() {
+        ByteBuffer abc = ByteBuffer.wrap("abc".getBytes(Charset.forName("US-ASCII")));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                hex(ContentDigest.SHA_256, abc.duplicate()));
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", hex(ContentDigest.SHA_1, abc.duplicate()));
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", hex(ContentDigest.MD5, abc.duplicate()));
+    }
+
+    @Test
+    public void updateConsumesBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap(CHECK);
+        ContentDigest.create(ContentDigest.CRC32C).update(buffer);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void validatesAlgorithms() {
+        assertTrue(ContentDigest.isValid(ContentDigest.CRC32C));
+        assertTrue(ContentDigest.isValid(ContentDigest.MD5));
+        assertFalse(ContentDigest.isValid("xxhash64"));
+        assertFalse(ContentDigest.isValid(null));
+    }
+
+    private static String hex(String algorithm, ByteBuffer data) {
+        return ShareCache.toHex(finish(algorithm, data));
+    }
+
+    private static byte[] finish(String algorithm, ByteBuffer data) {
+        ContentDigest digest = ContentDigest.create(algorithm);
+        digest.update(data);
+        return digest.finish();
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
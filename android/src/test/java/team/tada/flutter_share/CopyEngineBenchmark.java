@@ -0,0 +1,144 @@
+package team.tada.flutter_share;
+
+import android.content.res.AssetFileDescriptor;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the copy paths of {@link CopyEngine} on the JVM at several sizes and prints the median
+ * throughput of each, so a change to buffer sizes or chunking can be compared before and after.
+ * Absolute numbers depend on the host disk, only compare runs on the same machine.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.P)
+public class CopyEngineBenchmark {
+
+    private static final int[] SIZES = {64 * 1024, 1024 * 1024, 16 * 1024 * 1024};
+    private static final int RUNS = 5;
+    private static final long SEGMENT_BYTES = 1024 * 1024;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("benchmark", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        FileHelper.deleteRecursively(dir);
+    }
+
+    @Test
+    public void copyWithTransferTo() throws IOException {
+        for (int size : SIZES) {
+            final File source = source(size);
+            report("copy transferTo", size, time(size, new Run() {
+                @Override
+                public long run(File output) throws IOException {
+                    return copy(source, output, null);
+                }
+            }));
+        }
+    }
+
+    @Test
+    public void copyBufferedWithDigest() throws IOException {
+        for (int size : SIZES) {
+            final File source = source(size);
+            report("copy sha256", size, time(size, new Run() {
+                @Override
+                public long run(File output) throws IOException {
+                    return copy(source, output, ContentDigest.create(ContentDigest.SHA_256));
+                }
+            }));
+        }
+    }
+
+    @Test
+    public void writeSegments() throws IOException {
+        for (int size : SIZES) {
+            final File source = source(size);
+            report("segments", size, time(size, new Run() {
+                @Override
+                public long run(File output) throws IOException {
+                    assertTrue(output.mkdir());
+                    try (FileInputStream input = new FileInputStream(source)) {
+                        return CopyEngine.writeSegments(input.getChannel(), 0, source.length(), output,
+                                SEGMENT_BYTES, null, false, null).bytes;
+                    }
+                }
+            }));
+        }
+    }
+
+    private interface Run {
+        /**
+         * @return bytes copied to {@code output}.
+         */
+        long run(File output) throws IOException;
+    }
+
+    private static long copy(File source, File output, ContentDigest digest) throws IOException {
+        ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(source, ParcelFileDescriptor.MODE_READ_ONLY);
+        try (AssetFileDescriptor input = new AssetFileDescriptor(descriptor, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+             FileOutputStream stream = new FileOutputStream(output)) {
+            return CopyEngine.copy(input, stream.getChannel(), digest, digest != null, null).bytes;
+        }
+    }
+
+    /**
+     * @return median duration in nanoseconds of {@link #RUNS} runs copying {@code size} bytes, after
+     * one warm-up run.
+     */
+    private long time(long size, Run run) throws IOException {
+        long[] durations = new long[RUNS];
+        for (int i = -1; i < RUNS; i++) {
+            File output = new File(dir, "output-" + i);
+            long start = System.nanoTime();
+            long bytes = run.run(output);
+            long duration = System.nanoTime() - start;
+            assertEquals(size, bytes);
+            FileHelper.deleteRecursively(output);
+            if (i >= 0) {
+                durations[i] = duration;
+            }
+        }
+        Arrays.sort(durations);
+        return durations[RUNS / 2];
+    }
+
+    private File source(int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        File source = new File(dir, "source-" + size);
+        try (FileOutputStream output = new FileOutputStream(source)) {
+            output.write(data);
+        }
+        return source;
+    }
+
+    private static void report(String name, int size, long nanos) {
+        double megabytes = size / (1024.0 * 1024.0);
+        System.out.println(String.format("%-16s %8d KB %8.2f ms %8.1f MB/s",
+                name, size / 1024, nanos / 1e6, megabytes / (nanos / 1e9)));
+    }
+}
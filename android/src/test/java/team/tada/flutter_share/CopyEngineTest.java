@@ -0,0 +1,214 @@
+package team.tada.flutter_share;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CopyEngineTest {
+
+    private File dir;
+    private File segments;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("copy", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        segments = new File(dir, "segments");
+        assertTrue(segments.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        FileHelper.deleteRecursively(dir);
+    }
+
+    @Test
+    public void splitsSeekableContentAtSegmentSize() throws IOException {
+        byte[] data = random(10);
+        CopyEngine.Result result = writeSeekable(data, 0, data.length, 4, null);
+
+        assertEquals(10, result.bytes);
+        assertSegments(4, 4, 2);
+        assertArrayEquals(data, readSegments());
+    }
+
+    @Test
+    public void endsSeekableContentOnSegmentBoundary() throws IOException {
+        byte[] data = random(8);
+        writeSeekable(data, 0, data.length, 4, null);
+
+        assertSegments(4, 4);
+        assertArrayEquals(data, readSegments());
+    }
+
+    @Test
+    public void writesOneEmptySegmentForEmptyContent() throws IOException {
+        CopyEngine.Result result = writeSeekable(new byte[0], 0, 0, 4, null);
+
+        assertEquals(0, result.bytes);
+        assertSegments(0);
+    }
+
+    @Test
+    public void readsSeekableContentFromStartOffset() throws IOException {
+        byte[] data = random(12);
+        writeSeekable(data, 2, 8, 3, null);
+
+        assertSegments(3, 3, 2);
+        assertArrayEquals(Arrays.copyOfRange(data, 2, 10), readSegments());
+    }
+
+    @Test
+    public void digestsSeekableContentWhenRequired() throws IOException {
+        byte[] data = random(9);
+        CopyEngine.Result result = writeSeekable(data, 1, 7, 3, ContentDigest.create(ContentDigest.CRC32));
+
+        assertSegments(3, 3, 1);
+        ContentDigest expected = ContentDigest.create(ContentDigest.CRC32);
+        expected.update(ByteBuffer.wrap(data, 1, 7));
+        assertArrayEquals(expected.finish(), result.digest);
+    }
+
+    @Test
+    public void failsTruncatedSeekableContent() throws IOException {
+        byte[] data = random(6);
+        try {
+            writeSeekable(data, 0, 10, 4, null);
+            fail("a source shorter than declared must fail");
+        } catch (EOFException expected) {
+            // The full first segment stays, the short one is never renamed into place
+        }
+        assertSegments(4);
+    }
+
+    @Test
+    public void failsTruncatedSeekableContentOnBufferedPath() throws IOException {
+        byte[] data = random(6);
+        try {
+            writeSeekable(data, 0, 10, 4, ContentDigest.create(ContentDigest.SHA_256));
+            fail("a source shorter than declared must fail");
+        } catch (EOFException expected) {
+            // Same as the transferTo path
+        }
+        assertSegments(4);
+    }
+
+    @Test
+    public void endsStreamWithShortSegment() throws IOException {
+        byte[] data = random(10);
+        CopyEngine.Result result = writeStream(data, 4, ContentDigest.create(ContentDigest.SHA_256));
+
+        assertEquals(10, result.bytes);
+        assertSegments(4, 4, 2);
+        assertArrayEquals(data, readSegments());
+        assertArrayEquals(finish(ContentDigest.SHA_256, data), result.digest);
+    }
+
+    @Test
+    public void endsStreamOnSegmentBoundaryWithoutEmptySegment() throws IOException {
+        byte[] data = random(8);
+        CopyEngine.Result result = writeStream(data, 4, null);
+
+        assertEquals(8, result.bytes);
+        assertSegments(4, 4);
+        assertNull(result.digest);
+    }
+
+    @Test
+    public void writesOneEmptySegmentForEmptyStream() throws IOException {
+        writeStream(new byte[0], 4, null);
+
+        assertSegments(0);
+    }
+
+    @Test
+    public void checksLength() throws IOException {
+        CopyEngine.checkLength(5, 5);
+        try {
+            CopyEngine.checkLength(4, 5);
+            fail("a short copy must fail");
+        } catch (EOFException expected) {
+            // Reported as the end of the source
+        }
+    }
+
+    private CopyEngine.Result writeSeekable(byte[] data, long start, long total, long segmentBytes,
+                                            ContentDigest digest) throws IOException {
+        File source = write(data);
+        try (FileInputStream input = new FileInputStream(source)) {
+            return CopyEngine.writeSegments(input.getChannel(), start, total, segments, segmentBytes, digest,
+                    digest != null, null);
+        }
+    }
+
+    /**
+     * A channel read from its current position, the way pipes are copied.
+     */
+    private CopyEngine.Result writeStream(byte[] data, long segmentBytes, ContentDigest digest) throws IOException {
+        File source = write(data);
+        try (FileInputStream input = new FileInputStream(source)) {
+            FileChannel channel = input.getChannel();
+            return CopyEngine.writeSegments(channel, 0, -1, segments, segmentBytes, digest, false, null);
+        }
+    }
+
+    private File write(byte[] data) throws IOException {
+        File source = new File(dir, "source");
+        try (FileOutputStream output = new FileOutputStream(source)) {
+            output.write(data);
+        }
+        return source;
+    }
+
+    /**
+     * Asserts the sizes of the segment files, and that no temporary file is left behind.
+     */
+    private void assertSegments(long... sizes) {
+        String[] names = segments.list();
+        Arrays.sort(names);
+        assertEquals(Arrays.toString(names), sizes.length, names.length);
+        for (int i = 0; i < sizes.length; i++) {
+            assertEquals(String.format("%05d", i), names[i]);
+            assertEquals(names[i], sizes[i], new File(segments, names[i]).length());
+        }
+    }
+
+    private byte[] readSegments() throws IOException {
+        String[] names = segments.list();
+        Arrays.sort(names);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (String name : names) {
+            content.write(FileHelper.readFully(new File(segments, name)));
+        }
+        return content.toByteArray();
+    }
+
+    private static byte[] finish(String algorithm, byte[] data) {
+        ContentDigest digest = ContentDigest.create(algorithm);
+        digest.update(ByteBuffer.wrap(data));
+        return digest.finish();
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,97 @@
+package team.tada.flutter_share;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import org.robolectric.Robolectric;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Provider serving one row and one file for every uri, the way a sharing app's provider does.
+ */
+public class FakeContentProvider extends ContentProvider {
+
+    static final String AUTHORITY = "team.tada.flutter_share.test";
+
+    /**
+     * Columns of the row, the query projection is ignored unless {@link #knownColumns} is set.
+     */
+    String[] columns = new String[0];
+    Object[] row;
+    /**
+     * Columns the provider accepts, like a SQLite backed provider rejecting any other. Null to
+     * accept every projection.
+     */
+    List<String> knownColumns;
+    File file;
+    int queries;
+    int opens;
+
+    static FakeContentProvider setUp() {
+        return Robolectric.setupContentProvider(FakeContentProvider.class, AUTHORITY);
+    }
+
+    static Uri uri(String path) {
+        return Uri.parse("content://" + AUTHORITY + "/" + path);
+    }
+
+    void setRow(String[] columns, Object... row) {
+        this.columns = columns;
+        this.row = row;
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        queries++;
+        if (knownColumns != null && projection != null && !knownColumns.containsAll(Arrays.asList(projection))) {
+            throw new IllegalArgumentException("Invalid column in " + Arrays.toString(projection));
+        }
+        MatrixCursor cursor = new MatrixCursor(columns);
+        if (row != null) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        opens++;
+        if (file == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return 0;
+    }
+}
@@ -0,0 +1,122 @@
+package team.tada.flutter_share;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.OpenableColumns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.P)
+public class FileHelperTest {
+
+    private Context context;
+    private FakeContentProvider provider;
+    private File dir;
+    private ShareCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        context = RuntimeEnvironment.application;
+        provider = FakeContentProvider.setUp();
+        dir = File.createTempFile("helper", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        cache = ShareCache.forDirectory(new File(dir, "cache"), Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() {
+        FileHelper.deleteRecursively(dir);
+    }
+
+    @Test
+    public void copiesContentUriIntoCache() throws IOException {
+        byte[] data = serve("report", 100 * 1024);
+        Uri uri = FakeContentProvider.uri("report");
+
+        String path = FileHelper.getPath(context, uri, ShareMetadata.query(context, uri), cache, null, null);
+
+        assertTrue(path, path.startsWith(new File(dir, "cache").getAbsolutePath()));
+        assertArrayEquals(data, FileHelper.readFully(new File(path)));
+        assertEquals(1, provider.opens);
+    }
+
+    @Test
+    public void reusesCopyOfUnchangedSource() throws IOException {
+        serve("report", 1024);
+        Uri uri = FakeContentProvider.uri("report");
+
+        String first = FileHelper.getPath(context, uri, ShareMetadata.query(context, uri), cache, null, null);
+        String second = FileHelper.getPath(context, uri, ShareMetadata.query(context, uri), cache, null, null);
+
+        assertEquals(first, second);
+        assertEquals(1, provider.opens);
+    }
+
+    @Test
+    public void digestsContentWhileCopying() throws IOException {
+        byte[] data = serve("report", 4096);
+        Uri uri = FakeContentProvider.uri("report");
+
+        String path = FileHelper.getPath(context, uri, ShareMetadata.query(context, uri), cache,
+                ContentDigest.SHA_256, null);
+
+        ContentDigest expected = ContentDigest.create(ContentDigest.SHA_256);
+        expected.update(ByteBuffer.wrap(data));
+        assertEquals(ShareCache.toHex(expected.finish()), ContentDigest.of(new File(path), ContentDigest.SHA_256));
+    }
+
+    @Test
+    public void failsWhenProviderHasNoFile() {
+        provider.setRow(new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, "gone", 10L);
+        Uri uri = FakeContentProvider.uri("gone");
+
+        assertNull(FileHelper.getPath(context, uri, ShareMetadata.query(context, uri), cache, null, null));
+    }
+
+    @Test
+    public void returnsPathOfFileUri() throws IOException {
+        File file = new File(dir, "local.txt");
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(1);
+        }
+        Uri uri = Uri.fromFile(file);
+
+        assertEquals(file.getAbsolutePath(),
+                FileHelper.getPath(context, uri, ShareMetadata.query(context, uri), cache, null, null));
+        assertEquals(0, provider.opens);
+    }
+
+    /**
+     * Makes the provider serve {@code size} random bytes under {@code name}.
+     */
+    private byte[] serve(String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        File file = new File(dir, name);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(data);
+        }
+        provider.file = file;
+        provider.setRow(new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, name, (long) size);
+        return data;
+    }
+}
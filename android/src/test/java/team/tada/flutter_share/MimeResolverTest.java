@@ -0,0 +1,142 @@
+package team.tada.flutter_share;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MimeResolverTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("mime", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        FileHelper.deleteRecursively(dir);
+    }
+
+    @Test
+    public void sniffsImages() {
+        assertEquals("image/jpeg", MimeResolver.sniff(bytes(0xFF, 0xD8, 0xFF, 0xE0)));
+        assertEquals("image/png", MimeResolver.sniff(bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)));
+        assertEquals("image/gif", MimeResolver.sniff(ascii("GIF89a")));
+        assertEquals("image/webp", MimeResolver.sniff(ascii("RIFF\0\0\0\0WEBPVP8 ")));
+        assertEquals("image/tiff", MimeResolver.sniff(bytes('I', 'I', 0x2A, 0x00)));
+    }
+
+    @Test
+    public void sniffsRiffByForm() {
+        assertEquals("audio/x-wav", MimeResolver.sniff(ascii("RIFF\0\0\0\0WAVEfmt ")));
+        assertEquals("video/x-msvideo", MimeResolver.sniff(ascii("RIFF\0\0\0\0AVI LIST")));
+        assertNull(MimeResolver.sniff(ascii("RIFF\0\0\0\0RMI data")));
+    }
+
+    @Test
+    public void sniffsKnownFtypBrands() {
+        assertEquals("image/heic", MimeResolver.sniff(ftyp("heic")));
+        assertEquals("image/heif", MimeResolver.sniff(ftyp("mif1")));
+        assertEquals("image/avif", MimeResolver.sniff(ftyp("avif")));
+        assertEquals("video/mp4", MimeResolver.sniff(ftyp("isom")));
+        assertEquals("video/mp4", MimeResolver.sniff(ftyp("mp42")));
+        assertEquals("audio/mp4", MimeResolver.sniff(ftyp("M4A ")));
+        assertEquals("video/quicktime", MimeResolver.sniff(ftyp("qt  ")));
+        assertEquals("video/3gpp", MimeResolver.sniff(ftyp("3gp5")));
+        assertEquals("video/3gpp2", MimeResolver.sniff(ftyp("3g2a")));
+    }
+
+    @Test
+    public void leavesUnknownFtypBrandsUntyped() {
+        assertNull(MimeResolver.sniff(ftyp("crx ")));
+        assertNull(MimeResolver.sniff(ftyp("jp2 ")));
+    }
+
+    @Test
+    public void checksBmpHeaderSize() {
+        byte[] bmp = new byte[18];
+        bmp[0] = 'B';
+        bmp[1] = 'M';
+        bmp[14] = 40;
+        assertEquals("image/bmp", MimeResolver.sniff(bmp));
+
+        assertNull(MimeResolver.sniff(ascii("BMW service manual")));
+    }
+
+    @Test
+    public void sniffsOtherFormats() {
+        assertEquals("application/pdf", MimeResolver.sniff(ascii("%PDF-1.7")));
+        assertEquals("application/zip", MimeResolver.sniff(bytes('P', 'K', 0x03, 0x04)));
+        assertEquals("application/gzip", MimeResolver.sniff(bytes(0x1F, 0x8B, 0x08)));
+        assertEquals("video/x-matroska", MimeResolver.sniff(bytes(0x1A, 0x45, 0xDF, 0xA3)));
+        assertEquals("audio/mpeg", MimeResolver.sniff(ascii("ID3\u0004")));
+        assertEquals("audio/ogg", MimeResolver.sniff(ascii("OggS")));
+        assertEquals("audio/flac", MimeResolver.sniff(ascii("fLaC")));
+    }
+
+    @Test
+    public void returnsNullForShortOrUnknownHeaders() {
+        assertNull(MimeResolver.sniff((byte[]) null));
+        assertNull(MimeResolver.sniff(new byte[0]));
+        assertNull(MimeResolver.sniff(bytes(0xFF, 0xD8)));
+        assertNull(MimeResolver.sniff(ascii("plain text")));
+        // Brand cut off by a short read
+        assertNull(MimeResolver.sniff(ascii("\0\0\0\u0018ftyp")));
+    }
+
+    @Test
+    public void sniffsFileHeader() throws IOException {
+        File file = new File(dir, "photo");
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(ftyp("heic"));
+            output.write(new byte[1024]);
+        }
+        assertEquals("image/heic", MimeResolver.sniff(file));
+
+        File empty = new File(dir, "empty");
+        assertTrue(empty.createNewFile());
+        assertNull(MimeResolver.sniff(empty));
+
+        assertNull(MimeResolver.sniff(new File(dir, "missing")));
+    }
+
+    @Test
+    public void tellsSpecificTypes() {
+        assertTrue(MimeResolver.isSpecific("image/png"));
+        assertFalse(MimeResolver.isSpecific(null));
+        assertFalse(MimeResolver.isSpecific(""));
+        assertFalse(MimeResolver.isSpecific("*/*"));
+        assertFalse(MimeResolver.isSpecific("image/*"));
+        assertFalse(MimeResolver.isSpecific(MimeResolver.OCTET_STREAM));
+    }
+
+    private static byte[] ftyp(String brand) {
+        return ascii("\0\0\0\u0018ftyp" + brand + "\0\0\0\0");
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(ASCII);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
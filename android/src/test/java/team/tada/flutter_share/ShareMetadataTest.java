@@ -0,0 +1,104 @@
+package team.tada.flutter_share;
+
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.P)
+public class ShareMetadataTest {
+
+    private FakeContentProvider provider;
+
+    @Before
+    public void setUp() {
+        provider = FakeContentProvider.setUp();
+    }
+
+    @Test
+    public void readsOpenableColumnsInOneQuery() {
+        provider.setRow(new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE, MediaStore.MediaColumns.MIME_TYPE},
+                "photo.jpg", 1234L, "image/jpeg");
+
+        ShareMetadata metadata = query("photo");
+
+        assertEquals("photo.jpg", metadata.displayName);
+        assertEquals(1234, metadata.size);
+        assertEquals("image/jpeg", metadata.getMimeType(RuntimeEnvironment.application));
+        assertEquals(1, provider.queries);
+    }
+
+    @Test
+    public void convertsMediaStoreSecondsToMilliseconds() {
+        provider.setRow(new String[]{OpenableColumns.DISPLAY_NAME, MediaStore.MediaColumns.DATE_MODIFIED},
+                "clip.mp4", 1500000000L);
+
+        assertEquals(1500000000000L, query("clip").lastModified);
+    }
+
+    @Test
+    public void reportsUnknownSizeAsNegative() {
+        provider.setRow(new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, "stream", null);
+
+        assertEquals(-1, query("stream").size);
+    }
+
+    @Test
+    public void retriesOpenableColumnsWhenProviderRejectsProjection() {
+        provider.knownColumns = Arrays.asList(OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE);
+        provider.setRow(new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, "notes.txt", 42L);
+
+        ShareMetadata metadata = query("notes");
+
+        assertEquals("notes.txt", metadata.displayName);
+        assertEquals(42, metadata.size);
+        assertEquals(2, provider.queries);
+    }
+
+    @Test
+    public void reportsNothingForEmptyCursor() {
+        ShareMetadata metadata = query("missing");
+
+        assertNull(metadata.displayName);
+        assertEquals(-1, metadata.size);
+    }
+
+    @Test
+    public void readsFileUrisFromDisk() throws IOException {
+        File file = File.createTempFile("metadata", ".bin");
+        try {
+            try (FileOutputStream output = new FileOutputStream(file)) {
+                output.write(new byte[7]);
+            }
+
+            ShareMetadata metadata = ShareMetadata.query(RuntimeEnvironment.application, Uri.fromFile(file));
+
+            assertEquals(file.getName(), metadata.displayName);
+            assertEquals(7, metadata.size);
+            assertEquals(file.getAbsolutePath(), metadata.data);
+            assertEquals(0, provider.queries);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private ShareMetadata query(String path) {
+        return ShareMetadata.query(RuntimeEnvironment.application, FakeContentProvider.uri(path));
+    }
+}
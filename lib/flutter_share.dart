@@ -1,3 +1,6 @@
+import 'dart:async';
+import 'dart:typed_data';
+
 import 'package:flutter/services.dart';
 import 'package:meta/meta.dart' show visibleForTesting;
 
@@ -22,13 +25,78 @@ class ShareType {
   }
 }
 
+/// Shared content received without copying, see `ReceiveMode.HANDLE`.
+///
+/// Bytes are read straight from the sharing app, call [close] once done.
+class ShareHandle {
+  final String id;
+
+  const ShareHandle(this.id);
+
+  /// Opens the content, returns its size in bytes or -1 if it is a stream.
+  Future<int> open() {
+    return Share.channel.invokeMethod<int>('openHandle', {Share.HANDLE: id});
+  }
+
+  /// Size in bytes, -1 if the sharing app does not report it.
+  Future<int> size() {
+    return Share.channel.invokeMethod<int>('getHandleSize', {Share.HANDLE: id});
+  }
+
+  /// Reads up to [length] bytes at [offset], an empty list means the end of content.
+  /// A single read returns at most 1 MB.
+  ///
+  /// Streams returned by some apps can only be read sequentially.
+  Future<Uint8List> read(int offset, int length) {
+    return Share.channel.invokeMethod<Uint8List>('readHandle', {
+      Share.HANDLE: id,
+      'offset': offset,
+      'length': length,
+    });
+  }
+
+  /// Reads the whole content in chunks of [chunkSize] bytes.
+  Stream<Uint8List> openRead({int chunkSize = 1024 * 1024}) async* {
+    var offset = 0;
+    while (true) {
+      final chunk = await read(offset, chunkSize);
+      if (chunk == null || chunk.isEmpty) break;
+      offset += chunk.length;
+      yield chunk;
+    }
+  }
+
+  Future<void> close() {
+    return Share.channel.invokeMethod<void>('closeHandle', {Share.HANDLE: id});
+  }
+
+  @override
+  String toString() {
+    return 'ShareHandle{$id}';
+  }
+}
+
 /// Plugin for summoning a platform share sheet.
 class Share {
   static const String TITLE = "title";
   static const String TEXT = "text";
   static const String PATH = "path";
+  static const String AUTHORITY = "authority";
   static const String TYPE = "type";
   static const String IS_MULTIPLE = "is_multiple";
+  static const String HANDLE = "handle";
+  static const String IS_HANDLE = "is_handle";
+  static const String VERSION = "version";
+  static const String ITEMS = "items";
+  static const String INDEX = "index";
+  static const String NAME = "name";
+  static const String MIME = "mime";
+  static const String SIZE = "size";
+  static const String SCALED_PATH = "scaled_path";
+  static const String THUMBNAIL_PATH = "thumbnail_path";
+  static const String SHARE_ID = "share_id";
+  static const String DIGEST = "digest";
+  static const String SEGMENTS = "segments";
 
   final ShareType mimeType;
   final String title;
@@ -38,6 +106,30 @@ class Share {
   final bool isErasingRequired;
   final List<Share> shares;
 
+  /// Set instead of [path] for shares received with `ReceiveMode.HANDLE`.
+  /// Handles are closed once the receive handler completed, read them before.
+  final ShareHandle handle;
+
+  /// Display name, mime type and size in bytes reported for a received item, only available
+  /// with `PayloadVersion.STRUCTURED`. [size] is -1 if unknown.
+  final String name;
+  final String mime;
+  final int size;
+
+  /// Downscaled copy and thumbnail of a received image, see
+  /// `FlutterShareReceiver.configure`. Null when not requested.
+  final String scaledPath;
+  final String thumbnailPath;
+
+  /// Hex digest of the received file, computed while it was copied with the
+  /// `digestAlgorithm` passed to `FlutterShareReceiver.configure`. Null when
+  /// not requested.
+  final String digest;
+
+  /// Segment files of an item received with `ReceiveMode.SEGMENTS`, in order.
+  /// [path] is their directory, delete it once the segments are consumed.
+  final List<String> segments;
+
   Share.nullType()
       : this.mimeType = null,
         this.title = '',
@@ -45,7 +137,15 @@ class Share {
         this.path = '',
         this.authority = '',
         this.isErasingRequired = false,
-        this.shares = const [];
+        this.shares = const [],
+        this.handle = null,
+        this.name = null,
+        this.mime = null,
+        this.size = null,
+        this.scaledPath = null,
+        this.thumbnailPath = null,
+        this.digest = null,
+        this.segments = null;
 
   const Share.plainText({this.title, this.text})
       : assert(text != null),
@@ -53,7 +153,15 @@ class Share {
         this.path = '',
         this.authority = '',
         this.isErasingRequired = false,
-        this.shares = const [];
+        this.shares = const [],
+        this.handle = null,
+        this.name = null,
+        this.mime = null,
+        this.size = null,
+        this.scaledPath = null,
+        this.thumbnailPath = null,
+        this.digest = null,
+        this.segments = null;
 
   const Share.file({
     this.mimeType = ShareType.TYPE_FILE,
@@ -62,8 +170,16 @@ class Share {
     this.authority,
     this.text = '',
     this.isErasingRequired = false,
+    this.handle,
+    this.name,
+    this.mime,
+    this.size,
+    this.scaledPath,
+    this.thumbnailPath,
+    this.digest,
+    this.segments,
   })  : assert(mimeType != null),
-        assert(path != null),
+        assert(path != null || handle != null),
         this.shares = const [];
 
   const Share.image({
@@ -73,8 +189,16 @@ class Share {
     this.authority,
     this.text = '',
     this.isErasingRequired = false,
+    this.handle,
+    this.name,
+    this.mime,
+    this.size,
+    this.scaledPath,
+    this.thumbnailPath,
+    this.digest,
+    this.segments,
   })  : assert(mimeType != null),
-        assert(path != null),
+        assert(path != null || handle != null),
         this.shares = const [];
 
   const Share.multiple({
@@ -86,17 +210,38 @@ class Share {
   })  : assert(mimeType != null),
         assert(shares != null),
         this.text = '',
-        this.path = '';
+        this.path = '',
+        this.handle = null,
+        this.name = null,
+        this.mime = null,
+        this.size = null,
+        this.scaledPath = null,
+        this.thumbnailPath = null,
+        this.digest = null,
+        this.segments = null;
 
   // ignore: prefer_constructors_over_static_methods
   static Share fromReceived(Map received) {
+    if (received[VERSION] == 2) {
+      return _fromReceivedStructured(received);
+    }
     assert(received.containsKey(TYPE));
 
     ShareType type = ShareType.fromMimeType(received[TYPE]);
     if (received.containsKey(IS_MULTIPLE)) {
+      bool isHandle = received.containsKey(IS_HANDLE);
+      List<int> indices = received.keys
+          .map((key) => int.tryParse(key))
+          .where((index) => index != null)
+          .toList()
+            ..sort();
       List<Share> receivedShares = new List();
-      for (var i = 0; i < received.length - 2; i++) {
-        receivedShares.add(Share.file(path: received["$i"]));
+      for (var i in indices) {
+        if (isHandle) {
+          receivedShares.add(Share.file(handle: ShareHandle(received["$i"])));
+        } else {
+          receivedShares.add(Share.file(path: received["$i"]));
+        }
       }
       if (received.containsKey(TITLE)) {
         return Share.multiple(mimeType: type, title: received[TITLE], shares: receivedShares);
@@ -108,8 +253,61 @@ class Share {
     }
   }
 
+  // ignore: prefer_constructors_over_static_methods
+  static Share _fromReceivedStructured(Map received) {
+    if (!received.containsKey(TYPE)) {
+      return Share.nullType();
+    }
+
+    ShareType type = ShareType.fromMimeType(received[TYPE]);
+    String title = received[TITLE];
+    String text = received[TEXT];
+    if (type == ShareType.TYPE_PLAIN_TEXT) {
+      return Share.plainText(title: title, text: text);
+    }
+
+    List<Share> items = <Share>[];
+    for (Map item in received[ITEMS]) {
+      ShareHandle handle = item.containsKey(HANDLE) ? ShareHandle(item[HANDLE]) : null;
+      if (type == ShareType.TYPE_IMAGE && received[IS_MULTIPLE] != true) {
+        items.add(Share.image(
+            path: item[PATH],
+            handle: handle,
+            name: item[NAME],
+            mime: item[MIME],
+            size: item[SIZE],
+            scaledPath: item[SCALED_PATH],
+            thumbnailPath: item[THUMBNAIL_PATH],
+            digest: item[DIGEST],
+            segments: item[SEGMENTS]?.cast<String>(),
+            title: title,
+            text: text ?? ''));
+      } else {
+        items.add(Share.file(
+            mimeType: type,
+            path: item[PATH],
+            handle: handle,
+            name: item[NAME],
+            mime: item[MIME],
+            size: item[SIZE],
+            scaledPath: item[SCALED_PATH],
+            thumbnailPath: item[THUMBNAIL_PATH],
+            digest: item[DIGEST],
+            segments: item[SEGMENTS]?.cast<String>(),
+            title: title,
+            text: text ?? ''));
+      }
+    }
+
+    if (received[IS_MULTIPLE] == true) {
+      return Share.multiple(mimeType: type, title: title, shares: items);
+    }
+    return items.isNotEmpty ? items.first : Share.nullType();
+  }
+
   // ignore: missing_return, prefer_constructors_over_static_methods
   static Share _fromReceivedSingle(Map received, ShareType type) {
+    ShareHandle handle = received.containsKey(HANDLE) ? ShareHandle(received[HANDLE]) : null;
     switch (type) {
       case ShareType.TYPE_PLAIN_TEXT:
         if (received.containsKey(TITLE)) {
@@ -122,24 +320,60 @@ class Share {
       case ShareType.TYPE_IMAGE:
         if (received.containsKey(TITLE)) {
           if (received.containsKey(TEXT)) {
-            return Share.image(path: received[PATH], title: received[TITLE], text: received[TEXT]);
+            return Share.image(
+                path: received[PATH],
+                handle: handle,
+                scaledPath: received[SCALED_PATH],
+                thumbnailPath: received[THUMBNAIL_PATH],
+                digest: received[DIGEST],
+                segments: received[SEGMENTS]?.cast<String>(),
+                title: received[TITLE],
+                text: received[TEXT]);
           }
 
-          return Share.image(path: received[PATH], text: received[TITLE]);
+          return Share.image(
+              path: received[PATH],
+              handle: handle,
+              scaledPath: received[SCALED_PATH],
+              thumbnailPath: received[THUMBNAIL_PATH],
+              digest: received[DIGEST],
+              segments: received[SEGMENTS]?.cast<String>(),
+              text: received[TITLE]);
         } else {
-          return Share.image(path: received[PATH]);
+          return Share.image(
+              path: received[PATH],
+              handle: handle,
+              scaledPath: received[SCALED_PATH],
+              thumbnailPath: received[THUMBNAIL_PATH],
+              digest: received[DIGEST],
+              segments: received[SEGMENTS]?.cast<String>());
         }
         break;
 
       case ShareType.TYPE_FILE:
         if (received.containsKey(TITLE)) {
           if (received.containsKey(TEXT)) {
-            return Share.file(path: received[PATH], title: received[TITLE], text: received[TEXT]);
+            return Share.file(
+                path: received[PATH],
+                handle: handle,
+                digest: received[DIGEST],
+                segments: received[SEGMENTS]?.cast<String>(),
+                title: received[TITLE],
+                text: received[TEXT]);
           }
 
-          return Share.file(path: received[PATH], text: received[TITLE]);
+          return Share.file(
+              path: received[PATH],
+              handle: handle,
+              digest: received[DIGEST],
+              segments: received[SEGMENTS]?.cast<String>(),
+              text: received[TITLE]);
         } else {
-          return Share.file(path: received[PATH]);
+          return Share.file(
+              path: received[PATH],
+              handle: handle,
+              digest: received[DIGEST],
+              segments: received[SEGMENTS]?.cast<String>());
         }
         break;
     }
@@ -149,6 +383,53 @@ class Share {
   @visibleForTesting
   static const MethodChannel channel = const MethodChannel('plugins.flutter.io/share');
 
+  /// Shares many local files at once. With an [authority] the platform side
+  /// wraps every path with the `FileProvider` registered under it, otherwise
+  /// the paths are sent as uris.
+  static Future<void> shareFiles(
+    List<String> paths, {
+    String authority,
+    ShareType mimeType = ShareType.TYPE_FILE,
+    String title,
+    String text,
+  }) {
+    assert(paths != null && paths.isNotEmpty);
+    return channel.invokeMethod<void>('shareFiles', <String, dynamic>{
+      'paths': paths,
+      AUTHORITY: authority,
+      TYPE: mimeType.toString(),
+      TITLE: title,
+      TEXT: text,
+    });
+  }
+
+  /// Shares [bytes] straight from memory, without writing them to a file.
+  ///
+  /// The receiving app streams the content from a plugin owned provider.
+  /// Returns the served uri, pass it to [releaseBytes] once the share is no
+  /// longer needed. Otherwise the buffer is kept until newer buffers exceed
+  /// 64 MB in total.
+  static Future<String> shareBytes(
+    Uint8List bytes, {
+    String mimeType = 'application/octet-stream',
+    String name,
+    String title,
+    String text,
+  }) {
+    assert(bytes != null);
+    return channel.invokeMethod<String>('shareBytes', <String, dynamic>{
+      'bytes': bytes,
+      TYPE: mimeType,
+      NAME: name,
+      TITLE: title,
+      TEXT: text,
+    });
+  }
+
+  static Future<bool> releaseBytes(String uri) {
+    return channel.invokeMethod<bool>('releaseBytes', <String, dynamic>{'uri': uri});
+  }
+
   bool get isNull => this.mimeType == null;
 
   bool get isMultiple => this.shares.isNotEmpty;
@@ -157,6 +438,6 @@ class Share {
   String toString() {
     // ignore: prefer_interpolation_to_compose_strings
     return 'Share{' +
-        (this.isNull ? 'null }' : 'mimeType: $mimeType, title: $title, text: $text, path: $path, shares: $shares}');
+        (this.isNull ? 'null }' : 'mimeType: $mimeType, title: $title, text: $text, path: $path, handle: $handle, name: $name, size: $size, digest: $digest, shares: $shares}');
   }
 }
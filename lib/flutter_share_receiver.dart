@@ -1,3 +1,5 @@
+import 'dart:ui';
+
 import 'package:flutter/material.dart';
 import 'package:flutter/services.dart';
 import 'package:flutter_share/flutter_share.dart';
@@ -5,6 +7,224 @@ import 'package:meta/meta.dart';
 import 'package:permission_handler/permission_handler.dart';
 
 typedef Future<dynamic> SharingReceiveHandler(Share share);
+typedef void ReceiveStartedHandler(ReceiveStarted started);
+typedef void ItemReadyHandler(ReceiveItemReady item);
+
+/// Entrypoint of the background isolate started for [FlutterShareReceiver.configure]
+/// with a `backgroundHandler`.
+@pragma('vm:entry-point')
+void _backgroundDispatcher() {
+  WidgetsFlutterBinding.ensureInitialized();
+
+  const MethodChannel backgroundChannel =
+      const MethodChannel('plugins.flutter.io/share_background');
+  backgroundChannel.setMethodCallHandler((MethodCall call) async {
+    if (call.method != "onReceive") {
+      throw UnsupportedError("Unrecognized input data");
+    }
+    final SharingReceiveHandler handler = PluginUtilities.getCallbackFromHandle(
+        CallbackHandle.fromRawHandle(call.arguments['handler']));
+    final Share share =
+        Share.fromReceived(call.arguments['share'].cast<String, dynamic>());
+    return handler(share);
+  });
+  backgroundChannel.invokeMethod<void>('initialized');
+}
+
+/// How received files are handed over to Dart.
+class ReceiveMode {
+  /// Files are copied into app storage, [Share.path] points to the copy.
+  static const ReceiveMode COPY = const ReceiveMode._internal("copy");
+
+  /// Nothing is copied, content is read through [Share.handle].
+  static const ReceiveMode HANDLE = const ReceiveMode._internal("handle");
+
+  /// Files are written out as [Share.segments] of `segmentBytes` each, every
+  /// segment is announced on [FlutterShareReceiver.progress] as soon as it is
+  /// written, so it can be consumed while later ones are still being copied.
+  static const ReceiveMode SEGMENTS = const ReceiveMode._internal("segments");
+
+  final String _mode;
+
+  const ReceiveMode._internal(this._mode);
+
+  @override
+  String toString() {
+    return _mode;
+  }
+}
+
+/// Where copies of received files are stored.
+class StorageTarget {
+  /// Internal storage included in backups, the default.
+  static const StorageTarget FILES = const StorageTarget._internal("files");
+
+  /// Internal storage the system may clear when space runs low.
+  static const StorageTarget CACHE = const StorageTarget._internal("cache");
+
+  /// Internal storage excluded from backups.
+  static const StorageTarget NO_BACKUP = const StorageTarget._internal("no_backup");
+
+  /// App-specific external storage, internal storage while it is unmounted.
+  static const StorageTarget EXTERNAL = const StorageTarget._internal("external");
+
+  /// The `storageDirectory` passed to [FlutterShareReceiver.configure].
+  static const StorageTarget CUSTOM = const StorageTarget._internal("custom");
+
+  final String _target;
+
+  const StorageTarget._internal(this._target);
+
+  @override
+  String toString() {
+    return _target;
+  }
+}
+
+/// Layout of the share data sent by the platform side.
+class PayloadVersion {
+  /// Flat string map with items under "0", "1", ... keys.
+  static const PayloadVersion LEGACY = const PayloadVersion._internal(1);
+
+  /// Typed map with a list of items, adds [Share.name], [Share.mime] and
+  /// [Share.size].
+  static const PayloadVersion STRUCTURED = const PayloadVersion._internal(2);
+
+  final int value;
+
+  const PayloadVersion._internal(this.value);
+
+  @override
+  String toString() {
+    return '$value';
+  }
+}
+
+/// Progress of a single received file being copied.
+class ReceiveProgress {
+  static const String PROGRESS = "progress";
+  static const String DONE = "done";
+  static const String CANCELLED = "cancelled";
+  static const String FAILED = "failed";
+
+  /// A segment of `ReceiveMode.SEGMENTS` was written, see [segmentPath].
+  static const String SEGMENT = "segment";
+
+  /// Identifies the copy, pass it to [FlutterShareReceiver.cancel].
+  final String id;
+
+  /// Position of the file in the share, 0 for single shares.
+  final int index;
+  final String state;
+  final int bytes;
+
+  /// Total size in bytes, -1 if the sharing app does not report it.
+  final int total;
+
+  /// Position, file, offset in the content and length in bytes of the
+  /// segment written, only set for [SEGMENT] events.
+  final int segment;
+  final String segmentPath;
+  final int segmentOffset;
+  final int segmentLength;
+
+  ReceiveProgress.fromEvent(Map event)
+      : id = event['id'],
+        index = event['index'],
+        state = event['state'],
+        bytes = event['bytes'],
+        total = event['total'],
+        segment = event['segment'],
+        segmentPath = event['path'],
+        segmentOffset = event['offset'],
+        segmentLength = event['length'];
+
+  bool get isFinished => state != PROGRESS && state != SEGMENT;
+
+  @override
+  String toString() {
+    return 'ReceiveProgress{id: $id, index: $index, state: $state, bytes: $bytes, total: $total'
+        '${state == SEGMENT ? ', segment: $segment, segmentPath: $segmentPath' : ''}}';
+  }
+}
+
+/// A share that started resolving, sent before any file is copied.
+class ReceiveStarted {
+  /// Matches [ReceiveItemReady.shareId] and `Share` received afterwards.
+  final String shareId;
+  final ShareType mimeType;
+  final String title;
+  final String text;
+  final bool isMultiple;
+  final List<ReceiveItemInfo> items;
+
+  ReceiveStarted.fromMap(Map map)
+      : shareId = map[Share.SHARE_ID],
+        mimeType = map[Share.TYPE] != null ? ShareType.fromMimeType(map[Share.TYPE]) : null,
+        title = map[Share.TITLE],
+        text = map[Share.TEXT],
+        isMultiple = map[Share.IS_MULTIPLE] == true,
+        items = (map[Share.ITEMS] as List)
+            .map((item) => ReceiveItemInfo.fromMap(item))
+            .toList();
+
+  @override
+  String toString() {
+    return 'ReceiveStarted{shareId: $shareId, mimeType: $mimeType, title: $title, items: $items}';
+  }
+}
+
+/// What the sharing app reports about an item before it is copied.
+class ReceiveItemInfo {
+  final int index;
+  final String name;
+  final String mime;
+
+  /// Size in bytes, -1 if unknown.
+  final int size;
+
+  ReceiveItemInfo.fromMap(Map map)
+      : index = map[Share.INDEX],
+        name = map[Share.NAME],
+        mime = map[Share.MIME],
+        size = map[Share.SIZE] ?? -1;
+
+  @override
+  String toString() {
+    return 'ReceiveItemInfo{index: $index, name: $name, mime: $mime, size: $size}';
+  }
+}
+
+/// An item of a share, delivered as soon as it is resolved.
+class ReceiveItemReady {
+  final String shareId;
+  final int index;
+
+  /// Null if the item could not be resolved or was cancelled.
+  final Share share;
+
+  ReceiveItemReady.fromMap(Map map)
+      : shareId = map[Share.SHARE_ID],
+        index = map[Share.INDEX],
+        share = map.containsKey(Share.PATH) || map.containsKey(Share.HANDLE)
+            ? Share.file(
+                mimeType: ShareType.fromMimeType(map[Share.MIME] ?? ''),
+                path: map[Share.PATH],
+                handle: map.containsKey(Share.HANDLE) ? ShareHandle(map[Share.HANDLE]) : null,
+                name: map[Share.NAME],
+                mime: map[Share.MIME],
+                size: map[Share.SIZE],
+                scaledPath: map[Share.SCALED_PATH],
+                thumbnailPath: map[Share.THUMBNAIL_PATH],
+                digest: map[Share.DIGEST],
+                segments: (map[Share.SEGMENTS] as List)?.cast<String>())
+            : null;
+
+  @override
+  String toString() {
+    return 'ReceiveItemReady{shareId: $shareId, index: $index, share: $share}';
+  }
+}
 
 class FlutterShareReceiver {
   factory FlutterShareReceiver() => _instance;
@@ -14,20 +234,199 @@ class FlutterShareReceiver {
   static final FlutterShareReceiver _instance = FlutterShareReceiver.private(
       const MethodChannel('plugins.flutter.io/share'));
 
+  static const int _pendingBatchSize = 16;
+
+  static const EventChannel _progressChannel =
+      const EventChannel('plugins.flutter.io/share/progress');
+
   final MethodChannel _channel;
 
+  Stream<ReceiveProgress> _progress;
+
   SharingReceiveHandler _onReceive;
+  ReceiveStartedHandler _onReceiveStarted;
+  ItemReadyHandler _onItemReady;
   Function _onPermissionError;
 
+  /// Storage permission checked once per share id when early delivery starts,
+  /// reused for its items and its final [Share].
+  final Map<String, Future<bool>> _permissions = {};
+
+  /// [concurrency] limits how many files of a multiple share are copied at the
+  /// same time, 1 keeps them sequential. Values around 2-4 suit flash storage.
+  ///
+  /// [receiveMode] selects whether files are copied, exposed as [ShareHandle]s
+  /// or written out as segments of [segmentBytes], see [ReceiveMode.SEGMENTS].
+  ///
+  /// Copies are kept in a cache limited to [cacheMaxBytes], sharing the same
+  /// item again returns the cached copy. Least recently used copies are deleted
+  /// first, the paths of earlier shares may become invalid after that.
+  ///
+  /// [storageTarget] selects where copies are stored, [storageDirectory] is
+  /// required for [StorageTarget.CUSTOM]. Copies of large files fail right
+  /// away when the target does not have enough free space.
+  ///
+  /// Received images can additionally be decoded once into a copy no larger
+  /// than [imageMaxDimension] pixels and a thumbnail no larger than
+  /// [thumbnailSize], encoded as [imageFormat] ('jpeg' or 'webp') with
+  /// [imageQuality]. 0 skips an output. See [Share.scaledPath] and
+  /// [Share.thumbnailPath].
+  ///
+  /// [payloadVersion] selects the layout received shares are sent in.
+  ///
+  /// With a [digestAlgorithm] ('sha256', 'sha1', 'md5', 'crc32' or 'crc32c')
+  /// every received file comes with its hex [Share.digest], computed from the
+  /// bytes as they are copied instead of reading the file again. Nothing is
+  /// hashed without one. With 'sha256' copies of identical content also share
+  /// one cached file.
+  ///
+  /// Set [onReceiveStarted] and [onItemReady] to learn about a share before
+  /// it is fully copied: [onReceiveStarted] right away with the names, types
+  /// and sizes of its items, then [onItemReady] for every item as soon as it
+  /// is resolved, in completion order. [onReceive] still gets the complete
+  /// share last. Neither is called for shares passed to [backgroundHandler].
+  ///
+  /// [verboseLogging] logs every received share and item on the platform
+  /// side, see also [getStats].
+  ///
+  /// Received shares are kept in a journal on the platform side until
+  /// [onReceive] or [backgroundHandler] completed for them. Shares received
+  /// before this call or left unhandled by a killed process are passed to
+  /// them right after configuring, without copying their files again.
+  ///
+  /// When [backgroundHandler] is set, received shares are passed to it in a
+  /// background isolate started by the plugin instead of to [onReceive], so
+  /// processing them never blocks the UI. It must be a top-level or static
+  /// function and no storage permission is requested for it.
   Future<void> configure({
     @required SharingReceiveHandler onReceive,
     @required Function onPermissionError,
+    int concurrency = 1,
+    ReceiveMode receiveMode = ReceiveMode.COPY,
+    int segmentBytes = 8 * 1024 * 1024,
+    int cacheMaxBytes = 512 * 1024 * 1024,
+    StorageTarget storageTarget = StorageTarget.FILES,
+    String storageDirectory,
+    int imageMaxDimension = 0,
+    int thumbnailSize = 0,
+    String imageFormat = 'jpeg',
+    int imageQuality = 85,
+    String digestAlgorithm,
+    PayloadVersion payloadVersion = PayloadVersion.LEGACY,
+    bool verboseLogging = false,
+    ReceiveStartedHandler onReceiveStarted,
+    ItemReadyHandler onItemReady,
+    SharingReceiveHandler backgroundHandler,
   }) async {
+    assert(concurrency != null && concurrency > 0);
+    assert(receiveMode != null);
+    assert(segmentBytes != null && segmentBytes > 0);
+    assert(storageTarget != null);
+    assert(storageTarget != StorageTarget.CUSTOM || storageDirectory != null);
+    assert(imageMaxDimension != null && imageMaxDimension >= 0);
+    assert(thumbnailSize != null && thumbnailSize >= 0);
+    assert(imageFormat == 'jpeg' || imageFormat == 'webp');
+    assert(imageQuality != null && imageQuality >= 0 && imageQuality <= 100);
+    assert(digestAlgorithm == null ||
+        const ['sha256', 'sha1', 'md5', 'crc32', 'crc32c'].contains(digestAlgorithm));
+    assert(payloadVersion != null);
+    assert(cacheMaxBytes != null && cacheMaxBytes >= 0);
     _onReceive = onReceive;
+    _onReceiveStarted = onReceiveStarted;
+    _onItemReady = onItemReady;
     _onPermissionError = onPermissionError;
 
+    int backgroundDispatcher;
+    int backgroundHandle;
+    if (backgroundHandler != null) {
+      backgroundDispatcher =
+          PluginUtilities.getCallbackHandle(_backgroundDispatcher).toRawHandle();
+      final CallbackHandle handle =
+          PluginUtilities.getCallbackHandle(backgroundHandler);
+      assert(handle != null, 'backgroundHandler must be a top-level or static function');
+      backgroundHandle = handle.toRawHandle();
+    }
+
     _channel.setMethodCallHandler(_handleMethod);
-    _channel.invokeMethod<void>('configure');
+    _channel.invokeMethod<void>('configure', <String, dynamic>{
+      'concurrency': concurrency,
+      'receive_mode': receiveMode.toString(),
+      'segment_bytes': segmentBytes,
+      'cache_max_bytes': cacheMaxBytes,
+      'payload_version': payloadVersion.value,
+      'verbose_logging': verboseLogging,
+      'early_delivery': onReceiveStarted != null || onItemReady != null,
+      'storage_target': storageTarget.toString(),
+      'storage_directory': storageDirectory,
+      'image_max_dimension': imageMaxDimension,
+      'thumbnail_size': thumbnailSize,
+      'image_format': imageFormat,
+      'image_quality': imageQuality,
+      'digest_algorithm': digestAlgorithm,
+      'background_dispatcher': backgroundDispatcher,
+      'background_handler': backgroundHandle,
+    });
+    // Platform messages are handled in order, so this runs after configure
+    if (backgroundHandler == null) {
+      _drainPending();
+    }
+  }
+
+  /// Receives the shares waiting in the journal, [_pendingBatchSize] at a time.
+  Future<void> _drainPending() async {
+    while (true) {
+      final List<dynamic> batch = await _channel
+          .invokeListMethod<dynamic>('takePending', {'limit': _pendingBatchSize});
+      if (batch == null || batch.isEmpty) break;
+      for (Map params in batch) {
+        await _receive(params.cast<String, dynamic>());
+      }
+    }
+  }
+
+  /// Acknowledges the share once [_onReceive] completed, a share that could
+  /// not be delivered stays in the journal and is handed out again.
+  Future<dynamic> _receive(Map<String, dynamic> params) async {
+    bool permission =
+        await (_permissions.remove(params[Share.SHARE_ID]) ?? _checkPermission());
+    if (!permission) {
+      _onPermissionError();
+      return null;
+    }
+    final result = await _onReceive(Share.fromReceived(params));
+    if (params[Share.SHARE_ID] != null) {
+      await _channel.invokeMethod<bool>('ackReceive', {Share.SHARE_ID: params[Share.SHARE_ID]});
+    }
+    return result;
+  }
+
+  /// Throttled progress of the files being copied for incoming shares.
+  Stream<ReceiveProgress> get progress {
+    if (_progress == null) {
+      _progress = _progressChannel
+          .receiveBroadcastStream()
+          .map((event) => ReceiveProgress.fromEvent(event));
+    }
+    return _progress;
+  }
+
+  /// Snapshot of the receive path counters of this process: per-stage
+  /// timings under 'stages' (count, total_ms and max_ms for metadata, mime,
+  /// path, copy, image, digest, item and share), 'items', 'bytes_copied',
+  /// 'copy_bytes_per_second', 'cache_hits', 'cache_misses', 'errors',
+  /// 'cancelled' and 'queue_depth'. Stages are also visible as
+  /// `flutter_share:<stage>` sections in systrace and Perfetto.
+  ///
+  /// Counters start over after the snapshot when [reset] is true.
+  Future<Map<String, dynamic>> getStats({bool reset = false}) {
+    return _channel.invokeMapMethod<String, dynamic>('getStats', {'reset': reset});
+  }
+
+  /// Cancels the copy with the given [ReceiveProgress.id], or all running
+  /// copies if [id] is null. Partially copied files are deleted and the
+  /// cancelled files are left out of the received [Share].
+  Future<bool> cancel([String id]) {
+    return _channel.invokeMethod<bool>('cancelReceive', {'id': id});
   }
 
   Future<bool> _checkPermission() async {
@@ -54,13 +453,25 @@ class FlutterShareReceiver {
   Future<dynamic> _handleMethod(MethodCall call) async {
     switch (call.method) {
       case "onReceive":
-        bool permission = await _checkPermission();
-        if (permission) {
-          Share share =
-              Share.fromReceived(call.arguments.cast<String, String>());
-          return _onReceive(share);
-        } else {
-          _onPermissionError();
+        return _receive(call.arguments.cast<String, dynamic>());
+      case "onReceiveStarted":
+        final started = ReceiveStarted.fromMap(call.arguments);
+        if (_onItemReady != null && started.shareId != null) {
+          _permissions[started.shareId] = _checkPermission();
+        }
+        if (_onReceiveStarted != null) {
+          _onReceiveStarted(started);
+        }
+        break;
+      case "onItemReady":
+        if (_onItemReady != null) {
+          final ready = ReceiveItemReady.fromMap(call.arguments);
+          final permission = ready.shareId != null
+              ? _permissions.putIfAbsent(ready.shareId, _checkPermission)
+              : _checkPermission();
+          if (await permission) {
+            _onItemReady(ready);
+          }
         }
         break;
       default:
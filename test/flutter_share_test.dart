@@ -0,0 +1,147 @@
+import 'package:flutter_share/flutter_share.dart';
+import 'package:flutter_test/flutter_test.dart';
+
+void main() {
+  group('structured payload', () {
+    test('decodes a single image with its outputs', () {
+      final share = Share.fromReceived(<dynamic, dynamic>{
+        'version': 2,
+        'share_id': 'a1',
+        'type': 'image/jpeg',
+        'is_multiple': false,
+        'title': 'Holiday',
+        'text': 'Look',
+        'items': <dynamic>[
+          <dynamic, dynamic>{
+            'index': 0,
+            'path': '/data/flutter_share/k/IMG_1.jpg',
+            'name': 'IMG_1.jpg',
+            'mime': 'image/jpeg',
+            'size': 2048,
+            'scaled_path': '/data/flutter_share/s/scaled.jpg',
+            'thumbnail_path': '/data/flutter_share/t/thumbnail.jpg',
+            'digest': 'e3069283',
+          },
+        ],
+      });
+
+      expect(share.mimeType, ShareType.TYPE_IMAGE);
+      expect(share.path, '/data/flutter_share/k/IMG_1.jpg');
+      expect(share.name, 'IMG_1.jpg');
+      expect(share.mime, 'image/jpeg');
+      expect(share.size, 2048);
+      expect(share.scaledPath, '/data/flutter_share/s/scaled.jpg');
+      expect(share.thumbnailPath, '/data/flutter_share/t/thumbnail.jpg');
+      expect(share.digest, 'e3069283');
+      expect(share.title, 'Holiday');
+      expect(share.text, 'Look');
+      expect(share.handle, isNull);
+    });
+
+    test('decodes multiple items received as handles', () {
+      final share = Share.fromReceived(<dynamic, dynamic>{
+        'version': 2,
+        'type': '*/*',
+        'is_multiple': true,
+        'items': <dynamic>[
+          <dynamic, dynamic>{'index': 0, 'handle': 'h0', 'name': 'a.pdf', 'mime': 'application/pdf', 'size': -1},
+          <dynamic, dynamic>{'index': 2, 'handle': 'h2', 'name': 'b.zip', 'mime': 'application/zip', 'size': 7},
+        ],
+      });
+
+      expect(share.mimeType, ShareType.TYPE_FILE);
+      expect(share.shares, hasLength(2));
+      expect(share.shares.map((item) => item.handle.id), ['h0', 'h2']);
+      expect(share.shares.map((item) => item.path), [null, null]);
+      expect(share.shares[0].size, -1);
+      expect(share.shares[1].mime, 'application/zip');
+    });
+
+    test('keeps images of a multiple share as files of an image type', () {
+      final share = Share.fromReceived(<dynamic, dynamic>{
+        'version': 2,
+        'type': 'image/png',
+        'is_multiple': true,
+        'items': <dynamic>[
+          <dynamic, dynamic>{'index': 0, 'path': '/p/0.png'},
+        ],
+      });
+
+      expect(share.mimeType, ShareType.TYPE_IMAGE);
+      expect(share.shares.single.mimeType, ShareType.TYPE_IMAGE);
+      expect(share.shares.single.path, '/p/0.png');
+    });
+
+    test('decodes segments', () {
+      final share = Share.fromReceived(<dynamic, dynamic>{
+        'version': 2,
+        'type': 'video/mp4',
+        'is_multiple': false,
+        'items': <dynamic>[
+          <dynamic, dynamic>{
+            'index': 0,
+            'path': '/segments/t1',
+            'segments': <dynamic>['/segments/t1/00000', '/segments/t1/00001'],
+          },
+        ],
+      });
+
+      expect(share.mimeType, ShareType.TYPE_FILE);
+      expect(share.path, '/segments/t1');
+      expect(share.segments, ['/segments/t1/00000', '/segments/t1/00001']);
+    });
+
+    test('decodes plain text', () {
+      final share = Share.fromReceived(<dynamic, dynamic>{
+        'version': 2,
+        'type': 'text/plain',
+        'is_multiple': false,
+        'title': 'Subject',
+        'text': 'hello',
+        'items': <dynamic>[],
+      });
+
+      expect(share.mimeType, ShareType.TYPE_PLAIN_TEXT);
+      expect(share.title, 'Subject');
+      expect(share.text, 'hello');
+    });
+
+    test('decodes a share without type or items as null type', () {
+      expect(Share.fromReceived(<dynamic, dynamic>{'version': 2}).mimeType, isNull);
+
+      final share = Share.fromReceived(<dynamic, dynamic>{
+        'version': 2,
+        'type': '*/*',
+        'is_multiple': false,
+        'items': <dynamic>[],
+      });
+      expect(share.mimeType, isNull);
+    });
+  });
+
+  group('legacy payload', () {
+    test('orders multiple items by index', () {
+      final share = Share.fromReceived(<dynamic, dynamic>{
+        'type': '*/*',
+        'is_multiple': 'true',
+        '10': '/p/10',
+        '2': '/p/2',
+        '0': '/p/0',
+      });
+
+      expect(share.shares.map((item) => item.path), ['/p/0', '/p/2', '/p/10']);
+    });
+
+    test('decodes multiple handles', () {
+      final share = Share.fromReceived(<dynamic, dynamic>{
+        'type': '*/*',
+        'is_multiple': 'true',
+        'is_handle': 'true',
+        '0': 'h0',
+      });
+
+      expect(share.shares.single.handle.id, 'h0');
+      expect(share.shares.single.path, isNull);
+    });
+  });
+}